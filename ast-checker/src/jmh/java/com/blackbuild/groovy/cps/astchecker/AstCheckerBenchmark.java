@@ -0,0 +1,103 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovy.cps.astchecker;
+
+import com.cloudbees.groovy.cps.CpsTransformer;
+import groovy.transform.TypeChecked;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.Phases;
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
+import org.codehaus.groovy.control.customizers.ImportCustomizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the light resolution mode of the {@link AstChecker} with the complete static type inference on a
+ * generated library. Most classes only contain CPS methods, some contain NonCPS helpers, like a typical
+ * shared library. Run with {@code gradlew :ast-checker:jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AstCheckerBenchmark {
+
+    private static final int CLASS_COUNT = 200;
+    private static final int NON_CPS_EVERY = 5;
+
+    @Param({"true", "false"})
+    public boolean fullInference;
+
+    private final List<String> sources = new ArrayList<>();
+
+    @Setup
+    public void createSources() {
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            StringBuilder source = new StringBuilder("package lib\n\nclass Step").append(i).append(" {\n");
+            source.append("    Map<String, Object> config = [name: 'step").append(i).append("', retries: 3]\n\n");
+            for (int m = 0; m < 10; m++) {
+                source.append("    def run").append(m).append("(String arg) {\n")
+                        .append("        def values = config.collect { k, v -> \"$k=$v\" }\n")
+                        .append("        if (values.size() > ").append(m).append(") {\n")
+                        .append("            return values.join(',') + arg\n")
+                        .append("        }\n")
+                        .append("        return arg.toUpperCase()\n")
+                        .append("    }\n\n");
+            }
+            if (i % NON_CPS_EVERY == 0) {
+                source.append("    @NonCPS\n")
+                        .append("    String format(List<String> values) {\n")
+                        .append("        values.findAll { it != null }.collect { it.trim() }.sort().join(' ')\n")
+                        .append("    }\n");
+            }
+            source.append("}\n");
+            sources.add(source.toString());
+        }
+    }
+
+    @Benchmark
+    public int check() {
+        CompilerConfiguration configuration = new CompilerConfiguration();
+        configuration.getOptimizationOptions().put(AstChecker.FULL_INFERENCE_OPTION, fullInference);
+        configuration.addCompilationCustomizers(new ImportCustomizer().addStarImports("com.cloudbees.groovy.cps"));
+        configuration.addCompilationCustomizers(new CpsTransformer());
+        configuration.addCompilationCustomizers(new ASTTransformationCustomizer(TypeChecked.class, AstChecker.class.getName()));
+
+        CompilationUnit unit = new CompilationUnit(configuration);
+        for (int i = 0; i < sources.size(); i++)
+            unit.addSource("Step" + i + ".groovy", sources.get(i));
+        unit.compile(Phases.INSTRUCTION_SELECTION);
+        return unit.getAST().getClasses().size();
+    }
+}
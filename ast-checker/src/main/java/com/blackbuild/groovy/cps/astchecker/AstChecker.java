@@ -47,6 +47,12 @@ import org.codehaus.groovy.transform.stc.StaticTypeCheckingVisitor;
 @GroovyASTTransformation(phase = CompilePhase.INSTRUCTION_SELECTION)
 public class AstChecker extends StaticTypesTransformation {
 
+    /**
+     * Optimization option ({@link org.codehaus.groovy.control.CompilerConfiguration#getOptimizationOptions()}) to run the
+     * complete static type inference instead of only resolving what the CPS checks need.
+     */
+    public static final String FULL_INFERENCE_OPTION = "cpsCheckFullInference";
+
     @Override
     protected StaticTypeCheckingVisitor newVisitor(SourceUnit unit, ClassNode node) {
         return new CpsCheckVisitor(unit, node);
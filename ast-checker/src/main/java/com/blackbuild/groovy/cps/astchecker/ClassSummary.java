@@ -0,0 +1,179 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovy.cps.astchecker;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summary of a single class for the {@link CpsCallGraph}: its supertypes, the classification of its methods
+ * and the calls relevant for the CPS rules. Stored as tab separated text, one file per class.
+ */
+class ClassSummary {
+
+    final String name;
+    final String superClass;
+    final List<String> interfaces;
+    final Map<String, MethodSummary> methods = new LinkedHashMap<>();
+    final List<Call> calls = new ArrayList<>();
+    final List<Call> closureForwards = new ArrayList<>();
+    final List<ClosureCall> closureCalls = new ArrayList<>();
+
+    ClassSummary(String name, String superClass, List<String> interfaces) {
+        this.name = name;
+        this.superClass = superClass;
+        this.interfaces = interfaces;
+    }
+
+    static class MethodSummary {
+        final String signature;
+        final String name;
+        final int parameterCount;
+        final CpsMethodClassification.Kind kind;
+        final boolean isAbstract;
+        final boolean invokesClosureParameter;
+
+        MethodSummary(String signature, String name, int parameterCount, CpsMethodClassification.Kind kind, boolean isAbstract, boolean invokesClosureParameter) {
+            this.signature = signature;
+            this.name = name;
+            this.parameterCount = parameterCount;
+            this.kind = kind;
+            this.isAbstract = isAbstract;
+            this.invokesClosureParameter = invokesClosureParameter;
+        }
+    }
+
+    /** A resolved call from a NonCPS method. */
+    static class Call {
+        final String caller;
+        final String owner;
+        final String target;
+        final int line;
+        final int column;
+
+        Call(String caller, String owner, String target, int line, int column) {
+            this.caller = caller;
+            this.owner = owner;
+            this.target = target;
+            this.line = line;
+            this.column = column;
+        }
+    }
+
+    /** A call from a CPS method passing a closure, only resolved by name and number of arguments. */
+    static class ClosureCall {
+        final String caller;
+        final String owner;
+        final String name;
+        final int arguments;
+        final int line;
+        final int column;
+
+        ClosureCall(String caller, String owner, String name, int arguments, int line, int column) {
+            this.caller = caller;
+            this.owner = owner;
+            this.name = name;
+            this.arguments = arguments;
+            this.line = line;
+            this.column = column;
+        }
+    }
+
+    void write(Path file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            out.println(join("class", name, orDash(superClass), interfaces.isEmpty() ? "-" : String.join(",", interfaces)));
+            for (MethodSummary method : methods.values())
+                out.println(join("method", method.signature, method.name, method.parameterCount, method.kind, flag(method.isAbstract), flag(method.invokesClosureParameter)));
+            for (Call call : calls)
+                out.println(join("call", call.caller, call.owner, call.target, call.line, call.column));
+            for (Call call : closureForwards)
+                out.println(join("forward", call.caller, call.owner, call.target, call.line, call.column));
+            for (ClosureCall call : closureCalls)
+                out.println(join("closure", call.caller, call.owner, call.name, call.arguments, call.line, call.column));
+        }
+    }
+
+    static ClassSummary read(Path file) throws IOException {
+        ClassSummary result = null;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.split("\t");
+                switch (parts[0]) {
+                    case "class":
+                        result = new ClassSummary(parts[1], parts[2].equals("-") ? null : parts[2],
+                                parts[3].equals("-") ? Collections.emptyList() : List.of(parts[3].split(",")));
+                        break;
+                    case "method":
+                        result.methods.put(parts[1], new MethodSummary(parts[1], parts[2], Integer.parseInt(parts[3]),
+                                CpsMethodClassification.Kind.valueOf(parts[4]), parts[5].equals("1"), parts[6].equals("1")));
+                        break;
+                    case "call":
+                        result.calls.add(new Call(parts[1], parts[2], parts[3], Integer.parseInt(parts[4]), Integer.parseInt(parts[5])));
+                        break;
+                    case "forward":
+                        result.closureForwards.add(new Call(parts[1], parts[2], parts[3], Integer.parseInt(parts[4]), Integer.parseInt(parts[5])));
+                        break;
+                    case "closure":
+                        result.closureCalls.add(new ClosureCall(parts[1], parts[2], parts[3], Integer.parseInt(parts[4]), Integer.parseInt(parts[5]), Integer.parseInt(parts[6])));
+                        break;
+                    default:
+                        throw new IOException("Invalid summary line in " + file + ": " + line);
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid summary " + file, e);
+        }
+        if (result == null)
+            throw new IOException("Empty summary " + file);
+        return result;
+    }
+
+    private static String join(Object... values) {
+        StringBuilder result = new StringBuilder();
+        for (Object value : values) {
+            if (result.length() > 0)
+                result.append('\t');
+            result.append(value);
+        }
+        return result.toString();
+    }
+
+    private static String orDash(String value) {
+        return value != null ? value : "-";
+    }
+
+    private static String flag(boolean value) {
+        return value ? "1" : "0";
+    }
+}
@@ -0,0 +1,491 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovy.cps.astchecker;
+
+import com.blackbuild.groovy.cps.astchecker.ClassSummary.Call;
+import com.blackbuild.groovy.cps.astchecker.ClassSummary.ClosureCall;
+import com.blackbuild.groovy.cps.astchecker.ClassSummary.MethodSummary;
+import org.codehaus.groovy.GroovyBugError;
+import org.codehaus.groovy.ast.ClassCodeVisitorSupport;
+import org.codehaus.groovy.ast.ClassHelper;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.MethodNode;
+import org.codehaus.groovy.ast.Parameter;
+import org.codehaus.groovy.ast.expr.ArgumentListExpression;
+import org.codehaus.groovy.ast.expr.ClassExpression;
+import org.codehaus.groovy.ast.expr.ClosureExpression;
+import org.codehaus.groovy.ast.expr.Expression;
+import org.codehaus.groovy.ast.expr.MethodCallExpression;
+import org.codehaus.groovy.ast.expr.StaticMethodCallExpression;
+import org.codehaus.groovy.ast.expr.TupleExpression;
+import org.codehaus.groovy.ast.expr.VariableExpression;
+import org.codehaus.groovy.classgen.GeneratorContext;
+import org.codehaus.groovy.control.CompilePhase;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.control.customizers.CompilationCustomizer;
+import org.codehaus.groovy.control.messages.SyntaxErrorMessage;
+import org.codehaus.groovy.syntax.SyntaxException;
+import org.codehaus.groovy.transform.stc.StaticTypesMarker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Whole library call graph analysis, finding violations that span several methods or classes and are
+ * invisible to the {@link AstChecker}, which only looks at direct calls:
+ * <ul>
+ *     <li>NonCPS methods calling a non transformed (e.g. abstract or interface) method that is CPS transformed
+ *     in a subclass of the library</li>
+ *     <li>CPS methods passing a closure to a NonCPS method which calls it, directly or by passing it on to
+ *     other NonCPS methods</li>
+ * </ul>
+ * A summary of each compiled class is stored in the summary directory. On incremental compilation, only the
+ * recompiled classes are analyzed again, the summaries of all other classes are reused. Summaries of classes
+ * whose class file no longer exists are ignored.
+ * <p>
+ * Resolved call targets of NonCPS methods are taken from the static type checker, so this only works together
+ * with the {@link AstChecker}. Usage in a compiler configuration script:
+ * <code>configuration.addCompilationCustomizers(CpsCallGraph.customizers("../../../cps-summaries/main"))</code>
+ */
+public class CpsCallGraph {
+
+    static final String SUMMARY_SUFFIX = ".summary";
+
+    private final String summaryPath;
+    private final Map<String, ClassSummary> summaries = new HashMap<>();
+    private final Map<String, SourceUnit> sources = new HashMap<>();
+    private final Map<String, ClassNode> classes = new HashMap<>();
+    private final Map<String, Set<String>> closureInvokingMethods = new HashMap<>();
+    private final Map<String, List<ClosureCall>> closureCalls = new HashMap<>();
+    private boolean analyzed;
+
+    private CpsCallGraph(String summaryPath) {
+        this.summaryPath = summaryPath;
+    }
+
+    /**
+     * Creates the customizers for a call graph analysis.
+     * @param summaryPath the directory for the class summaries, relative paths are resolved against the
+     *                    target directory of the compilation
+     */
+    public static CompilationCustomizer[] customizers(String summaryPath) {
+        CpsCallGraph graph = new CpsCallGraph(summaryPath);
+        return new CompilationCustomizer[] {
+                graph.new SourceCollector(),
+                graph.new SummaryCollector(),
+                graph.new Analyzer()
+        };
+    }
+
+    // before the CPS transformation, the bodies of CPS methods are still intact
+    private class SourceCollector extends CompilationCustomizer {
+        SourceCollector() {
+            super(CompilePhase.SEMANTIC_ANALYSIS);
+        }
+
+        @Override
+        public void call(SourceUnit source, GeneratorContext context, ClassNode classNode) {
+            Set<String> invoking = new HashSet<>();
+            List<ClosureCall> calls = new ArrayList<>();
+            for (MethodNode method : classNode.getMethods()) {
+                if (method.getCode() == null)
+                    continue;
+                if (!method.getAnnotations(CpsCheckExtension.NON_CPS_ANNOTATION_TYPE).isEmpty()) {
+                    if (invokesClosureParameter(method))
+                        invoking.add(CpsMethodClassification.signature(method));
+                } else {
+                    collectClosureCalls(classNode, method, calls);
+                }
+            }
+            closureInvokingMethods.put(classNode.getName(), invoking);
+            closureCalls.put(classNode.getName(), calls);
+        }
+    }
+
+    private class SummaryCollector extends CompilationCustomizer {
+        SummaryCollector() {
+            super(CompilePhase.INSTRUCTION_SELECTION);
+        }
+
+        @Override
+        public void call(SourceUnit source, GeneratorContext context, ClassNode classNode) {
+            CpsMethodClassification classification = CpsMethodClassification.of(source);
+            ClassNode superClass = classNode.getSuperClass();
+            ClassSummary summary = new ClassSummary(
+                    classNode.getName(),
+                    superClass != null ? superClass.getName() : null,
+                    Stream.of(classNode.getInterfaces()).map(ClassNode::getName).collect(Collectors.toList()));
+
+            Set<String> invoking = closureInvokingMethods.getOrDefault(classNode.getName(), Collections.emptySet());
+            for (MethodNode method : classNode.getMethods()) {
+                String signature = CpsMethodClassification.signature(method);
+                CpsMethodClassification.Kind kind = classification.classify(method);
+                summary.methods.put(signature, new MethodSummary(signature, method.getName(), method.getParameters().length,
+                        kind, method.isAbstract(), invoking.contains(signature)));
+                if (kind == CpsMethodClassification.Kind.NON_CPS && method.getCode() != null)
+                    collectResolvedCalls(source, method, signature, summary);
+            }
+            summary.closureCalls.addAll(closureCalls.getOrDefault(classNode.getName(), Collections.emptyList()));
+
+            summaries.put(classNode.getName(), summary);
+            sources.put(classNode.getName(), source);
+            classes.put(classNode.getName(), classNode);
+        }
+    }
+
+    private class Analyzer extends CompilationCustomizer {
+        Analyzer() {
+            super(CompilePhase.CLASS_GENERATION);
+        }
+
+        @Override
+        public void call(SourceUnit source, GeneratorContext context, ClassNode classNode) {
+            if (analyzed)
+                return;
+            analyzed = true;
+            try {
+                File targetDirectory = source.getConfiguration().getTargetDirectory();
+                Path summaryDir = resolveSummaryDir(targetDirectory);
+                Map<String, ClassSummary> all = loadSummaries(summaryDir, targetDirectory);
+                for (ClassSummary summary : summaries.values()) {
+                    summary.write(summaryDir.resolve(summary.name + SUMMARY_SUFFIX));
+                    all.put(summary.name, summary);
+                }
+                for (Finding finding : analyze(all))
+                    report(finding);
+            } catch (IOException e) {
+                throw new GroovyBugError("Could not store CPS call graph summaries: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private Path resolveSummaryDir(File targetDirectory) throws IOException {
+        File dir = new File(summaryPath);
+        if (!dir.isAbsolute() && targetDirectory != null)
+            dir = new File(targetDirectory, summaryPath);
+        Path result = dir.getCanonicalFile().toPath();
+        Files.createDirectories(result);
+        return result;
+    }
+
+    private Map<String, ClassSummary> loadSummaries(Path summaryDir, File targetDirectory) throws IOException {
+        Map<String, ClassSummary> result = new HashMap<>();
+        List<Path> files;
+        try (Stream<Path> list = Files.list(summaryDir)) {
+            files = list.filter(f -> f.getFileName().toString().endsWith(SUMMARY_SUFFIX)).collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            String fileName = file.getFileName().toString();
+            String className = fileName.substring(0, fileName.length() - SUMMARY_SUFFIX.length());
+            if (summaries.containsKey(className))
+                continue;
+            if (targetDirectory != null && !new File(targetDirectory, className.replace('.', '/') + ".class").exists()) {
+                Files.delete(file);
+                continue;
+            }
+            result.put(className, ClassSummary.read(file));
+        }
+        return result;
+    }
+
+    static class Finding {
+        final String className;
+        /**
+         * The other classes that are part of the violation, e.g. the classes of a chain of NonCPS methods
+         * forwarding a closure, in call order.
+         */
+        final List<String> involved;
+        final int line;
+        final int column;
+        final String message;
+
+        Finding(String className, List<String> involved, int line, int column, String message) {
+            this.className = className;
+            this.involved = involved;
+            this.line = line;
+            this.column = column;
+            this.message = message;
+        }
+    }
+
+    static List<Finding> analyze(Map<String, ClassSummary> all) {
+        Map<String, List<String>> subtypes = new HashMap<>();
+        for (ClassSummary summary : all.values()) {
+            if (summary.superClass != null)
+                subtypes.computeIfAbsent(summary.superClass, k -> new ArrayList<>()).add(summary.name);
+            for (String anInterface : summary.interfaces)
+                subtypes.computeIfAbsent(anInterface, k -> new ArrayList<>()).add(summary.name);
+        }
+
+        List<Finding> result = new ArrayList<>();
+        for (ClassSummary summary : all.values()) {
+            for (Call call : summary.calls) {
+                MethodSummary target = findMethod(all, call.owner, call.target);
+                if (target != null && target.kind == CpsMethodClassification.Kind.CPS)
+                    continue; // direct call, already reported by the AstChecker
+                String cpsSubtype = findCpsImplementation(all, subtypes, call.owner, call.target);
+                if (cpsSubtype != null)
+                    result.add(new Finding(summary.name, Collections.singletonList(cpsSubtype), call.line, call.column, String.format(
+                            "Illegal call from NonCPS method %s to %s, which is CPS transformed in %s",
+                            methodName(call.caller), methodName(call.target), cpsSubtype)));
+            }
+        }
+
+        Map<MethodSummary, List<String>> invoking = closureInvokingMethods(all);
+        for (ClassSummary summary : all.values()) {
+            for (ClosureCall call : summary.closureCalls) {
+                MethodSummary target = findMethod(all, call.owner, m -> m.name.equals(call.name) && m.parameterCount == call.arguments && m.kind == CpsMethodClassification.Kind.NON_CPS);
+                if (target != null && invoking.containsKey(target))
+                    result.add(new Finding(summary.name, invoking.get(target), call.line, call.column, String.format(
+                            "CPS closure passed from %s to NonCPS method %s, which calls it",
+                            methodName(call.caller), call.name)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns all NonCPS methods calling a closure parameter, directly or by forwarding it, mapped to the classes
+     * of the methods from the given one to the method actually calling the closure.
+     */
+    private static Map<MethodSummary, List<String>> closureInvokingMethods(Map<String, ClassSummary> all) {
+        Map<MethodSummary, List<String>> result = new IdentityHashMap<>();
+        for (ClassSummary summary : all.values())
+            for (MethodSummary method : summary.methods.values())
+                if (method.invokesClosureParameter)
+                    result.put(method, Collections.singletonList(summary.name));
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (ClassSummary summary : all.values()) {
+                for (Call forward : summary.closureForwards) {
+                    MethodSummary caller = summary.methods.get(forward.caller);
+                    if (caller == null || result.containsKey(caller))
+                        continue;
+                    MethodSummary target = findMethod(all, forward.owner, forward.target);
+                    if (target != null && result.containsKey(target)) {
+                        List<String> chain = new ArrayList<>();
+                        chain.add(summary.name);
+                        chain.addAll(result.get(target));
+                        result.put(caller, chain);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String findCpsImplementation(Map<String, ClassSummary> all, Map<String, List<String>> subtypes, String owner, String signature) {
+        Deque<String> queue = new ArrayDeque<>(subtypes.getOrDefault(owner, Collections.emptyList()));
+        Set<String> seen = new HashSet<>();
+        while (!queue.isEmpty()) {
+            String type = queue.poll();
+            if (!seen.add(type))
+                continue;
+            MethodSummary method = all.get(type).methods.get(signature);
+            if (method != null && method.kind == CpsMethodClassification.Kind.CPS)
+                return type;
+            queue.addAll(subtypes.getOrDefault(type, Collections.emptyList()));
+        }
+        return null;
+    }
+
+    private static MethodSummary findMethod(Map<String, ClassSummary> all, String owner, String signature) {
+        return findMethod(all, owner, m -> m.signature.equals(signature));
+    }
+
+    private static MethodSummary findMethod(Map<String, ClassSummary> all, String owner, Predicate<MethodSummary> filter) {
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(owner);
+        Set<String> seen = new HashSet<>();
+        while (!queue.isEmpty()) {
+            ClassSummary summary = all.get(queue.poll());
+            if (summary == null || !seen.add(summary.name))
+                continue;
+            for (MethodSummary method : summary.methods.values())
+                if (filter.test(method))
+                    return method;
+            if (summary.superClass != null)
+                queue.add(summary.superClass);
+            queue.addAll(summary.interfaces);
+        }
+        return null;
+    }
+
+    private static String methodName(String signature) {
+        int index = signature.indexOf('(');
+        return index >= 0 ? signature.substring(0, index) : signature;
+    }
+
+    private void report(Finding finding) {
+        SourceUnit source = sources.get(finding.className);
+        if (source != null) {
+            addError(source, finding.message, finding.line, finding.column);
+            return;
+        }
+        // the caller was not recompiled, report at the first recompiled class that is part of the violation
+        for (String involved : finding.involved) {
+            ClassNode node = classes.get(involved);
+            if (node != null) {
+                addError(sources.get(involved), String.format("%s (in %s, line %d)", finding.message, finding.className, finding.line),
+                        node.getLineNumber(), node.getColumnNumber());
+                return;
+            }
+        }
+    }
+
+    private static void addError(SourceUnit source, String message, int line, int column) {
+        source.getErrorCollector().addErrorAndContinue(new SyntaxErrorMessage(
+                new SyntaxException(message, line, column), source));
+    }
+
+    private static boolean invokesClosureParameter(MethodNode method) {
+        Set<String> closureParameters = closureParameters(method);
+        if (closureParameters.isEmpty())
+            return false;
+        boolean[] found = new boolean[1];
+        method.getCode().visit(new ClassCodeVisitorSupport() {
+            @Override
+            protected SourceUnit getSourceUnit() {
+                return null;
+            }
+
+            @Override
+            public void visitMethodCallExpression(MethodCallExpression call) {
+                String name = call.getMethodAsString();
+                if (call.isImplicitThis() && closureParameters.contains(name))
+                    found[0] = true;
+                else if ("call".equals(name) && referencesParameter(call.getObjectExpression(), closureParameters))
+                    found[0] = true;
+                super.visitMethodCallExpression(call);
+            }
+        });
+        return found[0];
+    }
+
+    private static void collectClosureCalls(ClassNode classNode, MethodNode method, List<ClosureCall> calls) {
+        String caller = CpsMethodClassification.signature(method);
+        method.getCode().visit(new ClassCodeVisitorSupport() {
+            @Override
+            protected SourceUnit getSourceUnit() {
+                return null;
+            }
+
+            @Override
+            public void visitMethodCallExpression(MethodCallExpression call) {
+                ClassNode owner = null;
+                Expression receiver = call.getObjectExpression();
+                if (call.isImplicitThis() || (receiver instanceof VariableExpression && ((VariableExpression) receiver).isThisExpression()))
+                    owner = classNode;
+                else if (receiver instanceof ClassExpression)
+                    owner = receiver.getType();
+                if (owner != null && call.getMethodAsString() != null)
+                    addClosureCall(owner, call.getMethodAsString(), call.getArguments(), call);
+                super.visitMethodCallExpression(call);
+            }
+
+            @Override
+            public void visitStaticMethodCallExpression(StaticMethodCallExpression call) {
+                addClosureCall(call.getOwnerType(), call.getMethod(), call.getArguments(), call);
+                super.visitStaticMethodCallExpression(call);
+            }
+
+            private void addClosureCall(ClassNode owner, String name, Expression arguments, Expression call) {
+                List<Expression> args = arguments(arguments);
+                if (args.stream().anyMatch(ClosureExpression.class::isInstance))
+                    calls.add(new ClosureCall(caller, owner.getName(), name, args.size(), call.getLineNumber(), call.getColumnNumber()));
+            }
+        });
+    }
+
+    private static void collectResolvedCalls(SourceUnit source, MethodNode method, String caller, ClassSummary summary) {
+        Set<String> closureParameters = closureParameters(method);
+        method.getCode().visit(new ClassCodeVisitorSupport() {
+            @Override
+            protected SourceUnit getSourceUnit() {
+                return source;
+            }
+
+            @Override
+            public void visitMethodCallExpression(MethodCallExpression call) {
+                addCall(call, call.getArguments());
+                super.visitMethodCallExpression(call);
+            }
+
+            @Override
+            public void visitStaticMethodCallExpression(StaticMethodCallExpression call) {
+                addCall(call, call.getArguments());
+                super.visitStaticMethodCallExpression(call);
+            }
+
+            private void addCall(Expression call, Expression arguments) {
+                MethodNode target = call.getNodeMetaData(StaticTypesMarker.DIRECT_METHOD_CALL_TARGET);
+                if (target == null || target.getDeclaringClass() == null)
+                    return;
+                String owner = target.getDeclaringClass().getName();
+                String signature = CpsMethodClassification.signature(target);
+                summary.calls.add(new Call(caller, owner, signature, call.getLineNumber(), call.getColumnNumber()));
+                if (arguments(arguments).stream().anyMatch(arg -> referencesParameter(arg, closureParameters)))
+                    summary.closureForwards.add(new Call(caller, owner, signature, call.getLineNumber(), call.getColumnNumber()));
+            }
+        });
+    }
+
+    private static Set<String> closureParameters(MethodNode method) {
+        Set<String> result = new HashSet<>();
+        for (Parameter parameter : method.getParameters())
+            if (parameter.getType().equals(ClassHelper.CLOSURE_TYPE) || parameter.isDynamicTyped())
+                result.add(parameter.getName());
+        return result;
+    }
+
+    private static boolean referencesParameter(Expression expression, Set<String> parameters) {
+        return expression instanceof VariableExpression
+                && ((VariableExpression) expression).getAccessedVariable() instanceof Parameter
+                && parameters.contains(((VariableExpression) expression).getName());
+    }
+
+    private static List<Expression> arguments(Expression arguments) {
+        if (arguments instanceof ArgumentListExpression || arguments instanceof TupleExpression)
+            return ((TupleExpression) arguments).getExpressions();
+        return Collections.singletonList(arguments);
+    }
+}
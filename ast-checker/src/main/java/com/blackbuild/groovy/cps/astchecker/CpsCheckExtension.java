@@ -62,8 +62,8 @@ public class CpsCheckExtension extends AbstractTypeCheckingExtension {
 
     }
 
-    private static boolean isCpsTransformed(MethodNode method) {
-        return !method.getAnnotations(WORKFLOW_TRANSFORMED_ANNOTATION).isEmpty();
+    private boolean isCpsTransformed(MethodNode method) {
+        return cpsCheckVisitor.getClassification().isCpsTransformed(method);
     }
 
     static final ClassNode NON_CPS_ANNOTATION_TYPE = ClassHelper.make(NonCPS.class);
@@ -0,0 +1,316 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovy.cps.astchecker;
+
+import com.cloudbees.groovy.cps.CpsTransformer;
+import groovy.transform.TypeChecked;
+import org.codehaus.groovy.ast.AnnotatedNode;
+import org.codehaus.groovy.ast.AnnotationNode;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.FieldNode;
+import org.codehaus.groovy.ast.ImportNode;
+import org.codehaus.groovy.ast.MethodNode;
+import org.codehaus.groovy.ast.ModuleNode;
+import org.codehaus.groovy.ast.Parameter;
+import org.codehaus.groovy.ast.PropertyNode;
+import org.codehaus.groovy.classgen.GeneratorContext;
+import org.codehaus.groovy.control.CompilationFailedException;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilePhase;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.MultipleCompilationErrorsException;
+import org.codehaus.groovy.control.Phases;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
+import org.codehaus.groovy.control.customizers.CompilationCustomizer;
+import org.codehaus.groovy.control.customizers.DelegatingCustomizer;
+import org.codehaus.groovy.control.customizers.ImportCustomizer;
+import org.codehaus.groovy.control.messages.ExceptionMessage;
+import org.codehaus.groovy.control.messages.Message;
+import org.codehaus.groovy.control.messages.SyntaxErrorMessage;
+import org.codehaus.groovy.syntax.SyntaxException;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the {@link AstChecker} on source files without compiling them. The sources are only processed up to
+ * the phase the checker runs in, no classes are generated.
+ * <p>
+ * Only uses JDK types in its signature, since it is called from the Gradle plugin using a separate classloader.
+ */
+public class CpsCheckRunner {
+
+    private static final String STATIC_TYPE_CHECKING_PREFIX = "[Static type checking] - ";
+
+    private CpsCheckRunner() {}
+
+    /**
+     * Checks the given sources.
+     * @param sources the files to check
+     * @param classpath the classpath to resolve other classes, including the already compiled library
+     * @param starImports packages to star import, as in the regular compilation
+     * @param imports classes to import, as in the regular compilation
+     * @param scriptBaseClass the base class for scripts, may be null
+     * @return a list of findings, each a map with the keys "file" (absolute path), "line", "column" and "message"
+     */
+    public static List<Map<String, Object>> check(List<File> sources, List<File> classpath, List<String> starImports, List<String> imports, String scriptBaseClass) {
+        return check(sources, sources, classpath, starImports, imports, scriptBaseClass);
+    }
+
+    /**
+     * Checks some sources of a library. All sources of the library are processed, so classes of the library are
+     * resolved from source instead of from compiled classes, but only the checked sources are type checked.
+     * @param sources all sources of the library
+     * @param checkedSources the files to check, a subset of sources
+     * @param classpath the classpath to resolve classes outside the library
+     * @param starImports packages to star import, as in the regular compilation
+     * @param imports classes to import, as in the regular compilation
+     * @param scriptBaseClass the base class for scripts, may be null
+     * @return a list of findings for the checked sources, each a map with the keys "file" (absolute path), "line",
+     * "column" and "message"
+     */
+    public static List<Map<String, Object>> check(List<File> sources, List<File> checkedSources, List<File> classpath, List<String> starImports, List<String> imports, String scriptBaseClass) {
+        return check(sources, checkedSources, classpath, starImports, imports, scriptBaseClass, new HashMap<>());
+    }
+
+    /**
+     * Checks some sources of a library like {@link #check(List, List, List, List, List, String)} and stores the
+     * statistics of the {@link CpsMethodClassification} in the given map, using the keys "classifiedMethods",
+     * "classificationHits" and "classificationNanos".
+     */
+    public static List<Map<String, Object>> check(List<File> sources, List<File> checkedSources, List<File> classpath, List<String> starImports, List<String> imports, String scriptBaseClass, Map<String, Object> statistics) {
+        return check(sources, checkedSources, classpath, starImports, imports, scriptBaseClass, statistics, new HashMap<>());
+    }
+
+    /**
+     * Checks some sources of a library like {@link #check(List, List, List, List, List, String, Map)} and stores a
+     * hash of the declarations of each checked source (imports, classes, fields, properties and method signatures
+     * including their annotations, but no method bodies) by absolute path in the given map. Other sources are
+     * only affected by a change of a source if its declarations hash changes.
+     */
+    public static List<Map<String, Object>> check(List<File> sources, List<File> checkedSources, List<File> classpath, List<String> starImports, List<String> imports, String scriptBaseClass, Map<String, Object> statistics, Map<String, String> declarations) {
+        Set<String> checkedPaths = checkedSources.stream().map(File::getAbsolutePath).collect(Collectors.toSet());
+        DeclarationCollector declarationCollector = new DeclarationCollector(checkedPaths);
+
+        CompilerConfiguration configuration = new CompilerConfiguration();
+        configuration.setClasspathList(classpath.stream().map(File::getAbsolutePath).collect(Collectors.toList()));
+        configuration.setTolerance(Integer.MAX_VALUE);
+        configuration.addCompilationCustomizers(new ImportCustomizer()
+                .addStarImports(starImports.toArray(new String[0]))
+                .addImports(imports.toArray(new String[0])));
+        // runs before the CPS transformation, which adds annotations and members
+        configuration.addCompilationCustomizers(declarationCollector);
+        configuration.addCompilationCustomizers(new CpsTransformer());
+        configuration.addCompilationCustomizers(new CheckedSourcesOnly(
+                new ASTTransformationCustomizer(TypeChecked.class, AstChecker.class.getName()), checkedPaths));
+        if (scriptBaseClass != null)
+            configuration.setScriptBaseClass(scriptBaseClass);
+
+        ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(CpsCheckRunner.class.getClassLoader());
+        CompilationUnit unit = new CompilationUnit(configuration);
+        try {
+            for (File source : sources)
+                unit.addSource(source);
+            unit.compile(Phases.INSTRUCTION_SELECTION);
+            return new ArrayList<>();
+        } catch (MultipleCompilationErrorsException e) {
+            return toFindings(e).stream()
+                    .filter(f -> f.get("file") == null || checkedPaths.contains(f.get("file")))
+                    .collect(Collectors.toList());
+        } finally {
+            Thread.currentThread().setContextClassLoader(contextLoader);
+            collectStatistics(unit, statistics);
+            for (String path : checkedPaths)
+                declarations.put(path, declarationCollector.hash(path));
+        }
+    }
+
+    private static void collectStatistics(CompilationUnit unit, Map<String, Object> statistics) {
+        Iterator<SourceUnit> sources = unit.iterator();
+        // the classification is shared by all sources of the unit, the AST is missing if parsing failed
+        if (!sources.hasNext())
+            return;
+        SourceUnit source = sources.next();
+        if (source.getAST() == null)
+            return;
+        CpsMethodClassification classification = CpsMethodClassification.of(source);
+        statistics.put("classifiedMethods", classification.getMisses());
+        statistics.put("classificationHits", classification.getHits());
+        statistics.put("classificationNanos", classification.getClassificationNanos());
+    }
+
+    // the CPS transformation must run on all sources to mark the transformed methods
+    private static class CheckedSourcesOnly extends DelegatingCustomizer {
+        private final Set<String> checkedPaths;
+
+        CheckedSourcesOnly(CompilationCustomizer delegate, Set<String> checkedPaths) {
+            super(delegate);
+            this.checkedPaths = checkedPaths;
+        }
+
+        @Override
+        public void call(SourceUnit source, GeneratorContext context, ClassNode classNode) throws CompilationFailedException {
+            if (source.getName() != null && checkedPaths.contains(new File(source.getName()).getAbsolutePath()))
+                super.call(source, context, classNode);
+        }
+    }
+
+    // collects a textual description of the declarations of each class per source
+    private static class DeclarationCollector extends CompilationCustomizer {
+        private final Set<String> checkedPaths;
+        private final Map<String, Map<String, String>> declarationsBySource = new HashMap<>();
+
+        DeclarationCollector(Set<String> checkedPaths) {
+            super(CompilePhase.CONVERSION);
+            this.checkedPaths = checkedPaths;
+        }
+
+        @Override
+        public void call(SourceUnit source, GeneratorContext context, ClassNode classNode) throws CompilationFailedException {
+            if (source.getName() == null)
+                return;
+            String path = new File(source.getName()).getAbsolutePath();
+            if (!checkedPaths.contains(path))
+                return;
+            Map<String, String> classes = declarationsBySource.computeIfAbsent(path, k -> new TreeMap<>());
+            if (classes.isEmpty())
+                classes.put("", describe(source.getAST()));
+            classes.put(classNode.getName(), describe(classNode));
+        }
+
+        String hash(String path) {
+            StringBuilder result = new StringBuilder();
+            for (String declaration : declarationsBySource.getOrDefault(path, Collections.emptyMap()).values())
+                result.append(declaration).append('\n');
+            try {
+                StringBuilder hex = new StringBuilder();
+                for (byte b : MessageDigest.getInstance("SHA-256").digest(result.toString().getBytes(StandardCharsets.UTF_8)))
+                    hex.append(String.format("%02x", b));
+                return hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+
+        private static String describe(ModuleNode module) {
+            StringBuilder result = new StringBuilder("package ").append(module.getPackageName());
+            for (ImportNode node : module.getImports())
+                result.append("\nimport ").append(node.getText());
+            for (ImportNode node : module.getStarImports())
+                result.append("\nimport ").append(node.getText());
+            for (ImportNode node : module.getStaticImports().values())
+                result.append("\nimport ").append(node.getText());
+            for (ImportNode node : module.getStaticStarImports().values())
+                result.append("\nimport ").append(node.getText());
+            return result.toString();
+        }
+
+        private static String describe(ClassNode classNode) {
+            StringBuilder result = new StringBuilder("class ").append(classNode.getName())
+                    .append(' ').append(classNode.getModifiers());
+            if (classNode.getUnresolvedSuperClass() != null)
+                result.append(" extends ").append(classNode.getUnresolvedSuperClass().toString(false));
+            for (ClassNode anInterface : classNode.getInterfaces())
+                result.append(" implements ").append(anInterface.toString(false));
+            annotations(result, classNode);
+            for (FieldNode field : classNode.getFields()) {
+                result.append("\nfield ").append(field.getName()).append(' ').append(field.getModifiers())
+                        .append(' ').append(field.getType().toString(false));
+                annotations(result, field);
+            }
+            for (PropertyNode property : classNode.getProperties()) {
+                result.append("\nproperty ").append(property.getName()).append(' ').append(property.getModifiers())
+                        .append(' ').append(property.getType().toString(false));
+                annotations(result, property);
+            }
+            for (MethodNode method : classNode.getDeclaredConstructors())
+                describe(result.append("\nconstructor "), method);
+            for (MethodNode method : classNode.getMethods())
+                describe(result.append("\nmethod "), method);
+            return result.toString();
+        }
+
+        private static void describe(StringBuilder result, MethodNode method) {
+            result.append(method.getName()).append('(');
+            for (Parameter parameter : method.getParameters()) {
+                result.append(parameter.getType().toString(false));
+                if (parameter.hasInitialExpression())
+                    result.append('=');
+                annotations(result, parameter);
+                result.append(',');
+            }
+            result.append(") ").append(method.getModifiers()).append(' ').append(method.getReturnType().toString(false));
+            for (ClassNode exception : method.getExceptions())
+                result.append(" throws ").append(exception.toString(false));
+            annotations(result, method);
+        }
+
+        private static void annotations(StringBuilder result, AnnotatedNode node) {
+            for (AnnotationNode annotation : node.getAnnotations()) {
+                result.append(" @").append(annotation.getClassNode().getName());
+                annotation.getMembers().forEach((name, value) -> result.append(' ').append(name).append('=').append(value.getText()));
+            }
+        }
+    }
+
+    private static List<Map<String, Object>> toFindings(MultipleCompilationErrorsException e) {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Object error : e.getErrorCollector().getErrors()) {
+            if (error instanceof SyntaxErrorMessage) {
+                SyntaxException cause = ((SyntaxErrorMessage) error).getCause();
+                result.add(finding(cause.getSourceLocator(), cause.getLine(), cause.getStartColumn(), cause.getOriginalMessage()));
+            } else if (error instanceof ExceptionMessage) {
+                Exception cause = ((ExceptionMessage) error).getCause();
+                result.add(finding(null, 0, 0, String.valueOf(cause)));
+            } else {
+                result.add(finding(null, 0, 0, String.valueOf((Message) error)));
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, Object> finding(String file, int line, int column, String message) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("file", file != null ? new File(file).getAbsolutePath() : null);
+        result.put("line", line);
+        result.put("column", column);
+        message = message.trim();
+        result.put("message", message.startsWith(STATIC_TYPE_CHECKING_PREFIX) ? message.substring(STATIC_TYPE_CHECKING_PREFIX.length()) : message);
+        return result;
+    }
+}
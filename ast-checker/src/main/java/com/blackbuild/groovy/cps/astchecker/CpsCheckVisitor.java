@@ -28,21 +28,28 @@ import org.codehaus.groovy.ast.AnnotatedNode;
 import org.codehaus.groovy.ast.ClassCodeVisitorSupport;
 import org.codehaus.groovy.ast.ClassNode;
 import org.codehaus.groovy.ast.MethodNode;
+import org.codehaus.groovy.ast.expr.BinaryExpression;
+import org.codehaus.groovy.ast.expr.Expression;
 import org.codehaus.groovy.ast.expr.PropertyExpression;
 import org.codehaus.groovy.control.SourceUnit;
 import org.codehaus.groovy.transform.stc.StaticTypeCheckingVisitor;
 
+import java.util.List;
+
 import static java.util.Arrays.stream;
 import static org.codehaus.groovy.runtime.DefaultGroovyMethods.asType;
 
 /**
  * {@link StaticTypeCheckingVisitor} that include various CPS specific validations in the compile process:
  * <ul>
- *     <li>Methods that override NonCPS methods must be marked with NonCPS themselves</li>
+ *     <li>Methods that override NonCPS methods (of any superclass or interface) must be marked with NonCPS themselves</li>
  *     <li>CPS methods must not use default values for arguments</li>
  *     <li>NonCPS methods must not call CPS methods (via {@link CpsCheckExtension}</li>
  *     <li>NonCPS methods must not call CPS getters (using property style access)</li>
  * </ul>
+ * Since only the call targets in NonCPS methods are needed, classes without NonCPS methods are not type checked
+ * at all and checks not contributing to call targets are skipped. Setting the optimization option
+ * {@link AstChecker#FULL_INFERENCE_OPTION} restores the complete static type check.
  */
 public class CpsCheckVisitor extends StaticTypeCheckingVisitor {
     /**
@@ -52,9 +59,18 @@ public class CpsCheckVisitor extends StaticTypeCheckingVisitor {
      */
     public CpsCheckVisitor(SourceUnit source, ClassNode cn) {
         super(source, cn);
+        classification = CpsMethodClassification.of(source);
+        fullInference = Boolean.TRUE.equals(source.getConfiguration().getOptimizationOptions().get(AstChecker.FULL_INFERENCE_OPTION));
         addTypeCheckingExtension(new CpsCheckExtension(this));
     }
 
+    private final CpsMethodClassification classification;
+    private final boolean fullInference;
+
+    CpsMethodClassification getClassification() {
+        return classification;
+    }
+
     @Override
     public boolean isSkipMode(AnnotatedNode node) {
         // skip all CPS transformed methods
@@ -77,10 +93,54 @@ public class CpsCheckVisitor extends StaticTypeCheckingVisitor {
         super.addStaticTypeError(message, astNode);
     }
 
+    @Override
+    public void visitClass(ClassNode node) {
+        if (fullInference || hasNonCpsMethods(node)) {
+            super.visitClass(node);
+            return;
+        }
+        // without NonCPS methods there are no call targets to resolve, only the declarations need to be checked
+        node.getMethods().forEach(this::checkMethodDeclaration);
+        node.getInnerClasses().forEachRemaining(this::visitClass);
+    }
+
+    private boolean hasNonCpsMethods(ClassNode node) {
+        return node.getMethods().stream().anyMatch(this::isNonCps);
+    }
+
+    // the following checks and error messages are not needed to determine call targets
+
+    @Override
+    protected void typeCheckAssignment(BinaryExpression assignmentExpression, Expression leftExpression, ClassNode leftExpressionType, Expression rightExpression, ClassNode inferredRightExpressionType) {
+        if (fullInference)
+            super.typeCheckAssignment(assignmentExpression, leftExpression, leftExpressionType, rightExpression, inferredRightExpressionType);
+    }
+
+    @Override
+    protected void addNoMatchingMethodError(ClassNode receiver, String name, ClassNode[] args, Expression call) {
+        if (fullInference)
+            super.addNoMatchingMethodError(receiver, name, args, call);
+    }
+
+    @Override
+    protected void addAmbiguousErrorMessage(List<MethodNode> foundMethods, String name, ClassNode[] args, Expression expr) {
+        if (fullInference)
+            super.addAmbiguousErrorMessage(foundMethods, name, args, expr);
+    }
+
+    @Override
+    protected void addAssignmentError(ClassNode leftType, ClassNode rightType, Expression assignmentExpression) {
+        if (fullInference)
+            super.addAssignmentError(leftType, rightType, assignmentExpression);
+    }
+
     @Override
     public void visitMethod(MethodNode node) {
         super.visitMethod(node);
+        checkMethodDeclaration(node);
+    }
 
+    private void checkMethodDeclaration(MethodNode node) {
         assertNonCpsOverridingIsConsistent(node);
         if (isNonCps(node)) return;
         assertNoInitialExpressionInCpsMethods(node);
@@ -93,14 +153,12 @@ public class CpsCheckVisitor extends StaticTypeCheckingVisitor {
     }
 
     private void assertNonCpsOverridingIsConsistent(MethodNode node) {
-        MethodNode overriddenMethod = node.getDeclaringClass().getSuperClass().getDeclaredMethod(node.getName(), node.getParameters());
-
-        if (overriddenMethod != null && isNonCps(overriddenMethod) && !isNonCps(node))
+        if (!isNonCps(node) && classification.overridesNonCpsMethod(node))
             addCPSTypeError("Methods overriding NonCPS methods must be non-CPS themselves", node);
     }
 
-    static boolean isNonCps(MethodNode node) {
-        return !node.getAnnotations(CpsCheckExtension.NON_CPS_ANNOTATION_TYPE).isEmpty();
+    boolean isNonCps(MethodNode node) {
+        return classification.isNonCps(node);
     }
 
     static class FailIfGetterIsCPSMethodVisitor extends ClassCodeVisitorSupport {
@@ -117,10 +175,9 @@ public class CpsCheckVisitor extends StaticTypeCheckingVisitor {
 
         @Override
         public void visitMethod(MethodNode node) {
-            if (node.getAnnotations(CpsCheckExtension.WORKFLOW_TRANSFORMED_ANNOTATION).isEmpty())
+            if (!outer.classification.isCpsTransformed(node))
                 return;
 
-            if (isNonCps(node)) return;
             outer.addCPSTypeError(String.format(
                     "Illegal call from NonCPS method %s to CPS getter %s::%s",
                             getEnclosingMethodName(),
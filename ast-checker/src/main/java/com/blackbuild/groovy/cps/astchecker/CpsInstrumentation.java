@@ -0,0 +1,107 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovy.cps.astchecker;
+
+import org.codehaus.groovy.ast.ClassHelper;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.MethodNode;
+import org.codehaus.groovy.ast.VariableScope;
+import org.codehaus.groovy.ast.expr.ArgumentListExpression;
+import org.codehaus.groovy.ast.expr.ConstantExpression;
+import org.codehaus.groovy.ast.expr.DeclarationExpression;
+import org.codehaus.groovy.ast.expr.StaticMethodCallExpression;
+import org.codehaus.groovy.ast.expr.VariableExpression;
+import org.codehaus.groovy.ast.stmt.BlockStatement;
+import org.codehaus.groovy.ast.stmt.ExpressionStatement;
+import org.codehaus.groovy.ast.stmt.Statement;
+import org.codehaus.groovy.ast.stmt.TryCatchStatement;
+import org.codehaus.groovy.classgen.GeneratorContext;
+import org.codehaus.groovy.classgen.ReturnAdder;
+import org.codehaus.groovy.control.CompilePhase;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.control.customizers.CompilationCustomizer;
+import org.codehaus.groovy.syntax.Token;
+import org.codehaus.groovy.syntax.Types;
+
+/**
+ * Weaves invocation counters and timers into all methods of the compiled classes, both CPS transformed and NonCPS.
+ * Runs before the CPS transformation, so the instrumentation of CPS methods is transformed as well and measures
+ * the actual execution in the CPS interpreter. The results are collected in {@link CpsMethodStatistics}.
+ * <p>
+ * Meant for tests and profiling, classes compiled with this customizer depend on the ast-checker at runtime.
+ */
+public class CpsInstrumentation extends CompilationCustomizer {
+
+    static final String START_VARIABLE = "$cpsInstrumentationStart";
+    private static final ClassNode STATISTICS_TYPE = ClassHelper.make(CpsMethodStatistics.class);
+
+    public CpsInstrumentation() {
+        super(CompilePhase.SEMANTIC_ANALYSIS);
+    }
+
+    @Override
+    public void call(SourceUnit source, GeneratorContext context, ClassNode classNode) {
+        if (classNode.isInterface())
+            return;
+        for (MethodNode method : classNode.getMethods()) {
+            if (isInstrumentable(classNode, method))
+                instrument(classNode, method);
+        }
+    }
+
+    private static boolean isInstrumentable(ClassNode classNode, MethodNode method) {
+        if (method.isAbstract() || method.isSynthetic() || method.getCode() == null)
+            return false;
+        if (method.getName().startsWith("<"))
+            return false;
+        // the generated main method of scripts only starts the script
+        return !(classNode.isScript() && method.getName().equals("main") && method.isStatic());
+    }
+
+    private static void instrument(ClassNode classNode, MethodNode method) {
+        String key = classNode.getName() + "." + CpsMethodClassification.signature(method);
+
+        // explicit returns, since the last statement of the body is no longer the last statement of the method
+        new ReturnAdder().visitMethod(method);
+
+        VariableExpression start = new VariableExpression(START_VARIABLE, ClassHelper.long_TYPE);
+        start.setAccessedVariable(start);
+        VariableExpression startReference = new VariableExpression(START_VARIABLE, ClassHelper.long_TYPE);
+        startReference.setAccessedVariable(start);
+
+        Statement declaration = new ExpressionStatement(new DeclarationExpression(
+                start,
+                Token.newSymbol(Types.ASSIGN, -1, -1),
+                new StaticMethodCallExpression(STATISTICS_TYPE, "start", ArgumentListExpression.EMPTY_ARGUMENTS)));
+        Statement record = new ExpressionStatement(new StaticMethodCallExpression(STATISTICS_TYPE, "record",
+                new ArgumentListExpression(new ConstantExpression(key), startReference)));
+
+        TryCatchStatement tryFinally = new TryCatchStatement(method.getCode(), record);
+        VariableScope scope = new VariableScope(method.getVariableScope());
+        scope.putDeclaredVariable(start);
+        BlockStatement body = new BlockStatement(new Statement[] {declaration, tryFinally}, scope);
+        body.setSourcePosition(method.getCode());
+        method.setCode(body);
+    }
+}
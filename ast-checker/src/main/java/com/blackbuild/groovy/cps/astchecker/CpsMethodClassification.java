@@ -0,0 +1,166 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovy.cps.astchecker;
+
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.CompileUnit;
+import org.codehaus.groovy.ast.MethodNode;
+import org.codehaus.groovy.ast.ModuleNode;
+import org.codehaus.groovy.ast.Parameter;
+import org.codehaus.groovy.control.SourceUnit;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/**
+ * Caches whether methods are CPS transformed or NonCPS and which NonCPS methods a class inherits. Looking up annotations is a linear scan over all
+ * annotations of a method, this is done only once per method and compilation unit instead of for every
+ * call site. Since the AST checker runs after the CPS transformation, the annotations do not change anymore.
+ * <p>
+ * Also keeps simple statistics (hits, misses and the time spent classifying methods).
+ */
+public class CpsMethodClassification {
+
+    public enum Kind { CPS, NON_CPS, UNKNOWN }
+
+    private final Map<MethodNode, Kind> kinds = new IdentityHashMap<>();
+    private final Map<ClassNode, Set<String>> inheritedNonCpsSignatures = new IdentityHashMap<>();
+    private long hits;
+    private long misses;
+    private long nanos;
+
+    /**
+     * Returns the classification shared by all sources of the compilation unit of the given source.
+     */
+    public static CpsMethodClassification of(SourceUnit source) {
+        ModuleNode module = source.getAST();
+        CompileUnit unit = module.getUnit();
+        // stored in the first module of the unit, so it lives exactly as long as the unit
+        ModuleNode owner = unit != null && !unit.getModules().isEmpty() ? unit.getModules().get(0) : module;
+        CpsMethodClassification result = (CpsMethodClassification) owner.getNodeMetaData(CpsMethodClassification.class);
+        if (result == null) {
+            result = new CpsMethodClassification();
+            owner.setNodeMetaData(CpsMethodClassification.class, result);
+        }
+        return result;
+    }
+
+    public Kind classify(MethodNode method) {
+        Kind kind = kinds.get(method);
+        if (kind != null) {
+            hits++;
+            return kind;
+        }
+        long start = System.nanoTime();
+        kind = computeKind(method);
+        kinds.put(method, kind);
+        nanos += System.nanoTime() - start;
+        misses++;
+        return kind;
+    }
+
+    public boolean isNonCps(MethodNode method) {
+        return classify(method) == Kind.NON_CPS;
+    }
+
+    public boolean isCpsTransformed(MethodNode method) {
+        return classify(method) == Kind.CPS;
+    }
+
+    /**
+     * Returns true if the given method overrides a NonCPS method of any superclass or interface (including traits).
+     */
+    public boolean overridesNonCpsMethod(MethodNode method) {
+        if (method.isStatic() || method.isPrivate())
+            return false;
+        return getInheritedNonCpsSignatures(method.getDeclaringClass()).contains(signature(method));
+    }
+
+    /**
+     * Returns the signatures of all NonCPS methods the given type inherits. Computed once per type, the sets of
+     * the ancestors are reused.
+     */
+    Set<String> getInheritedNonCpsSignatures(ClassNode type) {
+        ClassNode key = type.redirect();
+        Set<String> result = inheritedNonCpsSignatures.get(key);
+        if (result != null)
+            return result;
+
+        result = new HashSet<>();
+        if (key.getSuperClass() != null)
+            addAncestor(key.getSuperClass(), result);
+        for (ClassNode anInterface : key.getInterfaces())
+            addAncestor(anInterface, result);
+        if (result.isEmpty())
+            result = Collections.emptySet();
+        inheritedNonCpsSignatures.put(key, result);
+        return result;
+    }
+
+    private void addAncestor(ClassNode ancestor, Set<String> signatures) {
+        for (MethodNode method : ancestor.getMethods())
+            if (!method.isStatic() && !method.isPrivate() && isNonCps(method))
+                signatures.add(signature(method));
+        signatures.addAll(getInheritedNonCpsSignatures(ancestor));
+    }
+
+    static String signature(MethodNode method) {
+        StringJoiner result = new StringJoiner(",", method.getName() + "(", ")");
+        for (Parameter parameter : method.getParameters())
+            result.add(parameter.getType().redirect().getName());
+        return result.toString();
+    }
+
+    private static Kind computeKind(MethodNode method) {
+        if (!method.getAnnotations(CpsCheckExtension.NON_CPS_ANNOTATION_TYPE).isEmpty())
+            return Kind.NON_CPS;
+        if (!method.getAnnotations(CpsCheckExtension.WORKFLOW_TRANSFORMED_ANNOTATION).isEmpty())
+            return Kind.CPS;
+        return Kind.UNKNOWN;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * The time spent classifying methods (cache misses only) in nanoseconds.
+     */
+    public long getClassificationNanos() {
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CPS method classification: %d methods, %d hits, %.2f ms", misses, hits, nanos / 1_000_000.0);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovy.cps.astchecker;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Invocation counts and times of methods instrumented by {@link CpsInstrumentation}. Times are wall clock times
+ * including the called methods and, for CPS transformed methods, the interpretation overhead of the CPS
+ * runtime.
+ * <p>
+ * Calls are collected globally, unless the current thread opened a {@link Scope}, e.g. for a single test.
+ */
+public class CpsMethodStatistics {
+
+    private static final Map<String, Entry> ENTRIES = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Scope> CURRENT_SCOPE = new ThreadLocal<>();
+
+    private CpsMethodStatistics() {}
+
+    /**
+     * Called at the start of an instrumented method.
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Called when an instrumented method is left, either normally or by an exception.
+     */
+    public static void record(String method, long start) {
+        long nanos = System.nanoTime() - start;
+        Scope scope = CURRENT_SCOPE.get();
+        Entry entry = (scope != null ? scope.entries : ENTRIES).computeIfAbsent(method, Entry::new);
+        entry.count.increment();
+        entry.totalNanos.add(nanos);
+        entry.maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * Returns the statistics of all methods called since the last {@link #reset()}, sorted by method name.
+     */
+    public static Map<String, Entry> getEntries() {
+        return new TreeMap<>(ENTRIES);
+    }
+
+    public static void reset() {
+        ENTRIES.clear();
+    }
+
+    /**
+     * Collects the calls of the current thread separately until the scope is closed.
+     */
+    public static Scope openScope() {
+        Scope scope = new Scope(CURRENT_SCOPE.get());
+        CURRENT_SCOPE.set(scope);
+        return scope;
+    }
+
+    public static class Scope implements AutoCloseable {
+        private final Scope previous;
+        private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+        private Scope(Scope previous) {
+            this.previous = previous;
+        }
+
+        /**
+         * Returns the statistics of all methods called in this scope, sorted by method name.
+         */
+        public Map<String, Entry> getEntries() {
+            return new TreeMap<>(entries);
+        }
+
+        @Override
+        public void close() {
+            if (previous != null)
+                CURRENT_SCOPE.set(previous);
+            else
+                CURRENT_SCOPE.remove();
+        }
+    }
+
+    public static class Entry {
+        private final String method;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        Entry(String method) {
+            this.method = method;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d calls, %.3f ms total, %.3f ms max", method, getCount(), getTotalNanos() / 1e6, getMaxNanos() / 1e6);
+        }
+    }
+}
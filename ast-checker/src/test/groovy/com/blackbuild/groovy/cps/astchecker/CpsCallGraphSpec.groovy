@@ -0,0 +1,249 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovy.cps.astchecker
+
+import com.cloudbees.groovy.cps.CpsTransformer
+import groovy.transform.TypeChecked
+import org.codehaus.groovy.control.CompilationUnit
+import org.codehaus.groovy.control.CompilerConfiguration
+import org.codehaus.groovy.control.MultipleCompilationErrorsException
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer
+import org.codehaus.groovy.control.customizers.ImportCustomizer
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class CpsCallGraphSpec extends Specification {
+
+    @Rule TemporaryFolder folder = new TemporaryFolder()
+
+    File classes
+    File summaries
+
+    def setup() {
+        classes = folder.newFolder("classes")
+        summaries = new File(folder.root, "summaries")
+    }
+
+    def compile(Map<String, String> sources) {
+        def configuration = new CompilerConfiguration()
+        configuration.targetDirectory = classes
+        configuration.classpathList = [classes.absolutePath]
+        configuration.addCompilationCustomizers(new ImportCustomizer().addStarImports("com.cloudbees.groovy.cps"))
+        configuration.addCompilationCustomizers(new CpsTransformer())
+        configuration.addCompilationCustomizers(new ASTTransformationCustomizer(TypeChecked, AstChecker.name))
+        configuration.addCompilationCustomizers(CpsCallGraph.customizers("../summaries"))
+
+        def unit = new CompilationUnit(configuration, null, new GroovyClassLoader(getClass().classLoader))
+        sources.each { name, code -> unit.addSource(name, code) }
+        unit.compile()
+    }
+
+    def "NonCPS call to an interface method implemented as CPS is illegal"() {
+        when:
+        compile(
+                "Step.groovy": "interface Step { void run() }",
+                "Caller.groovy": "class Caller { @NonCPS void call(Step step) { step.run() } }",
+                "Impl.groovy": "class Impl implements Step { void run() {} }"
+        )
+
+        then:
+        def e = thrown(MultipleCompilationErrorsException)
+        e.message.contains("Illegal call from NonCPS method call to run, which is CPS transformed in Impl")
+    }
+
+    def "NonCPS call to an interface method implemented as NonCPS is legal"() {
+        when:
+        compile(
+                "Step.groovy": "interface Step { void run() }",
+                "Caller.groovy": "class Caller { @NonCPS void call(Step step) { step.run() } }",
+                "Impl.groovy": "class Impl implements Step { @NonCPS void run() {} }"
+        )
+
+        then:
+        notThrown(MultipleCompilationErrorsException)
+        new File(summaries, "Caller.summary").isFile()
+    }
+
+    def "CPS implementation added in a later compilation is detected using the stored summaries"() {
+        given:
+        compile(
+                "Step.groovy": "interface Step { void run() }",
+                "Caller.groovy": "class Caller { @NonCPS void call(Step step) { step.run() } }"
+        )
+
+        when:
+        compile("Impl.groovy": "class Impl implements Step { void run() {} }")
+
+        then:
+        def e = thrown(MultipleCompilationErrorsException)
+        e.message.contains("which is CPS transformed in Impl (in Caller, line 1)")
+    }
+
+    def "summaries of deleted classes are ignored"() {
+        given:
+        compile(
+                "Step.groovy": "interface Step { void run() }",
+                "Caller.groovy": "class Caller { @NonCPS void call(Step step) { step.run() } }"
+        )
+        new File(classes, "Caller.class").delete()
+
+        when:
+        compile("Impl.groovy": "class Impl implements Step { void run() {} }")
+
+        then:
+        notThrown(MultipleCompilationErrorsException)
+        !new File(summaries, "Caller.summary").exists()
+    }
+
+    def "CPS closure passed to a NonCPS method calling it is illegal"() {
+        when:
+        compile("Runner.groovy": '''
+class Runner {
+    @NonCPS
+    static invoke(Closure body) {
+        body()
+    }
+
+    def run() {
+        invoke { println "hello" }
+    }
+}
+''')
+
+        then:
+        def e = thrown(MultipleCompilationErrorsException)
+        e.message.contains("CPS closure passed from run to NonCPS method invoke, which calls it")
+    }
+
+    def "CPS closure passed to a NonCPS method forwarding it is illegal"() {
+        when:
+        compile("Runner.groovy": '''
+class Runner {
+    @NonCPS
+    static inner(Closure body) {
+        body.call()
+    }
+
+    @NonCPS
+    static outer(Closure body) {
+        inner(body)
+    }
+
+    def run() {
+        outer { println "hello" }
+    }
+}
+''')
+
+        then:
+        def e = thrown(MultipleCompilationErrorsException)
+        e.message.contains("CPS closure passed from run to NonCPS method outer, which calls it")
+    }
+
+    def "closure call added at the end of an unchanged forwarding chain is reported at the changed class"() {
+        given:
+        compile(
+                "Inner.groovy": '''
+class Inner {
+    @NonCPS
+    static inner(Closure body) {
+        body.toString()
+    }
+}
+''',
+                "Outer.groovy": '''
+class Outer {
+    @NonCPS
+    static outer(Closure body) {
+        Inner.inner(body)
+    }
+}
+''',
+                "Caller.groovy": '''
+class Caller {
+    def run() {
+        Outer.outer { println "hello" }
+    }
+}
+''')
+
+        when:
+        compile("Inner.groovy": '''
+class Inner {
+    @NonCPS
+    static inner(Closure body) {
+        body.call()
+    }
+}
+''')
+
+        then:
+        def e = thrown(MultipleCompilationErrorsException)
+        e.message.contains("Inner.groovy: 2: CPS closure passed from run to NonCPS method outer, which calls it (in Caller, line 4)")
+    }
+
+    def "CPS closure passed to a NonCPS method not calling it is legal"() {
+        when:
+        compile("Runner.groovy": '''
+class Runner {
+    @NonCPS
+    static store(Closure body) {
+        return body.toString()
+    }
+
+    def run() {
+        store { println "hello" }
+    }
+}
+''')
+
+        then:
+        notThrown(MultipleCompilationErrorsException)
+    }
+
+    def "summaries are readable"() {
+        given:
+        def summary = new ClassSummary("Caller", "java.lang.Object", ["Step"])
+        summary.methods.put("call(Step)", new ClassSummary.MethodSummary("call(Step)", "call", 1, CpsMethodClassification.Kind.NON_CPS, false, true))
+        summary.calls.add(new ClassSummary.Call("call(Step)", "Step", "run()", 3, 5))
+        summary.closureCalls.add(new ClassSummary.ClosureCall("run()", "Runner", "outer", 1, 7, 9))
+        def file = new File(folder.root, "Caller.summary").toPath()
+
+        when:
+        summary.write(file)
+        def read = ClassSummary.read(file)
+
+        then:
+        read.name == "Caller"
+        read.superClass == "java.lang.Object"
+        read.interfaces == ["Step"]
+        read.methods["call(Step)"].invokesClosureParameter
+        read.methods["call(Step)"].kind == CpsMethodClassification.Kind.NON_CPS
+        read.calls[0].target == "run()"
+        read.calls[0].line == 3
+        read.closureCalls[0].name == "outer"
+        read.closureCalls[0].arguments == 1
+    }
+}
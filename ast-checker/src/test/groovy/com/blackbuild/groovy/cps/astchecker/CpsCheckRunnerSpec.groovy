@@ -0,0 +1,197 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovy.cps.astchecker
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class CpsCheckRunnerSpec extends Specification {
+
+    @Rule TemporaryFolder folder = new TemporaryFolder()
+
+    def "findings are reported per source file"() {
+        given:
+        def invalid = source("Invalid.groovy", '''
+class Invalid {
+    def inner() {
+        return ""
+    }
+
+    @NonCPS
+    def outer() {
+        println inner()
+    }
+}
+''')
+        def valid = source("Valid.groovy", '''
+class Valid {
+    @NonCPS
+    def outer() {
+        return "bla".bytes
+    }
+}
+''')
+
+        when:
+        def findings = check(invalid, valid)
+
+        then:
+        findings.size() == 1
+        findings[0].file == invalid.absolutePath
+        findings[0].line == 9
+        findings[0].message == "Illegal call from NonCPS method outer"
+    }
+
+    def "other library classes are resolved from source, only checked sources are reported"() {
+        given:
+        def helper = source("Helper.groovy", '''
+class Helper {
+    def inner() {
+        return ""
+    }
+
+    @NonCPS
+    def invalid() {
+        println inner()
+    }
+}
+''')
+        def caller = source("Caller.groovy", '''
+class Caller {
+    @NonCPS
+    def outer() {
+        println new Helper().inner()
+    }
+}
+''')
+
+        when:
+        def findings = CpsCheckRunner.check([helper, caller], [caller], [], ["com.cloudbees.groovy.cps"], [], null)
+
+        then:
+        findings.size() == 1
+        findings[0].file == caller.absolutePath
+        findings[0].line == 5
+    }
+
+    def "valid sources produce no findings"() {
+        given:
+        def valid = source("Valid.groovy", '''
+class Valid {
+    def outer(String value) {
+        return value.bytes
+    }
+}
+''')
+
+        expect:
+        check(valid).isEmpty()
+    }
+
+    def "multiple findings are reported"() {
+        given:
+        def invalid = source("Invalid.groovy", '''
+class Invalid {
+    def first(String value = "a") {
+        return value
+    }
+    def second(String value = "b") {
+        return value
+    }
+}
+''')
+
+        when:
+        def findings = check(invalid)
+
+        then:
+        findings*.line == [3, 6]
+        findings*.message == ["Default values are not allowed for CPS methods"] * 2
+    }
+
+    def "classification statistics are reported"() {
+        given:
+        def valid = source("Valid.groovy", '''
+class Valid {
+    def outer(String value) {
+        return inner(value)
+    }
+    def inner(String value) {
+        return value.bytes
+    }
+}
+''')
+        def statistics = [:]
+
+        when:
+        CpsCheckRunner.check([valid], [valid], [], ["com.cloudbees.groovy.cps"], [], null, statistics)
+
+        then:
+        statistics.keySet() == ["classifiedMethods", "classificationHits", "classificationNanos"] as Set
+        statistics.classifiedMethods > 0
+        statistics.classificationNanos >= 0
+    }
+
+    def "declarations hash only changes with declarations"() {
+        given:
+        def helper = source("Helper.groovy", '''
+class Helper {
+    @NonCPS
+    def inner() {
+        return ""
+    }
+}
+''')
+        def original = declarations(helper)
+
+        when:
+        helper.text = helper.text.replace('""', '"changed"')
+
+        then:
+        declarations(helper) == original
+
+        when:
+        helper.text = helper.text.replace('@NonCPS', '')
+
+        then:
+        declarations(helper) != original
+    }
+
+    String declarations(File source) {
+        def result = [:]
+        CpsCheckRunner.check([source], [source], [], ["com.cloudbees.groovy.cps"], [], null, [:], result)
+        return result[source.absolutePath]
+    }
+
+    List<Map<String, Object>> check(File... sources) {
+        CpsCheckRunner.check(sources.toList(), [], ["com.cloudbees.groovy.cps"], [], null)
+    }
+
+    File source(String name, String content) {
+        def file = folder.newFile(name)
+        file.text = content
+        return file
+    }
+}
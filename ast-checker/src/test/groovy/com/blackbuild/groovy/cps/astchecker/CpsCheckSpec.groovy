@@ -137,4 +137,99 @@ class child extends Parent {
         thrown(MultipleCompilationErrorsException)
     }
 
-}
\ No newline at end of file
+    def "Methods overriding NonCps methods of indirect ancestors must also be NonCps"() {
+        when:
+        createClass '''
+class GrandParent {
+    @NonCPS
+    def myMethod() {}
+}
+class Parent extends GrandParent {}
+class Child extends Parent {
+    def myMethod() {}
+}
+'''
+        then:
+        thrown(MultipleCompilationErrorsException)
+    }
+
+    def "Methods implementing NonCps interface methods must also be NonCps"() {
+        when:
+        createClass '''
+interface Api {
+    @NonCPS
+    def myMethod()
+}
+interface ExtendedApi extends Api {}
+abstract class Base implements ExtendedApi {}
+class Child extends Base {
+    def myMethod() {}
+}
+'''
+        then:
+        thrown(MultipleCompilationErrorsException)
+    }
+
+    def "Methods overriding NonCps trait methods must also be NonCps"() {
+        when:
+        createClass '''
+trait Api {
+    @NonCPS
+    def myMethod() {}
+}
+class Child implements Api {
+    def myMethod() {}
+}
+'''
+        then:
+        thrown(MultipleCompilationErrorsException)
+    }
+
+    def "NonCps methods implementing NonCps interface methods are legal"() {
+        when:
+        createClass '''
+interface Api {
+    @NonCPS
+    def myMethod()
+}
+class Child implements Api {
+    @NonCPS
+    def myMethod() {}
+}
+'''
+        then:
+        notThrown(MultipleCompilationErrorsException)
+    }
+
+    def "full inference mode reports the same violations"() {
+        given:
+        compilerConfiguration.optimizationOptions.put(AstChecker.FULL_INFERENCE_OPTION, true)
+
+        when:
+        createClass '''
+def inner() {
+    return ""
+}
+
+@NonCPS
+def outer() {
+    println inner()
+}
+'''
+        then:
+        thrown(MultipleCompilationErrorsException)
+    }
+
+    def "default values in classes without NonCps methods are illegal"() {
+        when:
+        createClass '''
+class Steps {
+    def run(String value = "default") {
+        return value
+    }
+}
+'''
+        then:
+        thrown(MultipleCompilationErrorsException)
+    }
+}
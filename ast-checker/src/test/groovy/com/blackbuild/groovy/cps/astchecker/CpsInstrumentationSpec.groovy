@@ -0,0 +1,136 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovy.cps.astchecker
+
+import com.cloudbees.groovy.cps.Continuation
+import com.cloudbees.groovy.cps.CpsTransformer
+import com.cloudbees.groovy.cps.impl.CpsCallableInvocation
+import groovy.transform.TypeChecked
+import org.codehaus.groovy.control.CompilerConfiguration
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer
+import org.codehaus.groovy.control.customizers.ImportCustomizer
+import spock.lang.Specification
+
+class CpsInstrumentationSpec extends Specification {
+
+    GroovyClassLoader loader
+
+    def setup() {
+        def configuration = new CompilerConfiguration()
+        configuration.addCompilationCustomizers(new ImportCustomizer().addStarImports("com.cloudbees.groovy.cps"))
+        configuration.addCompilationCustomizers(new CpsInstrumentation())
+        configuration.addCompilationCustomizers(new CpsTransformer())
+        configuration.addCompilationCustomizers(new ASTTransformationCustomizer(TypeChecked, AstChecker.name))
+        loader = new GroovyClassLoader(getClass().classLoader, configuration)
+        CpsMethodStatistics.reset()
+    }
+
+    def execute(Closure code) {
+        try {
+            return code.call()
+        } catch (CpsCallableInvocation e) {
+            return e.invoke(null, null, Continuation.HALT).run(10000).replay()
+        }
+    }
+
+    def "NonCPS methods are counted"() {
+        given:
+        def instance = loader.parseClass('''
+class Tool {
+    @NonCPS
+    String upper(String value) {
+        return value.toUpperCase()
+    }
+}
+''').newInstance()
+
+        when:
+        def result = instance.upper("a") + instance.upper("b")
+
+        then:
+        result == "AB"
+        CpsMethodStatistics.entries["Tool.upper(java.lang.String)"].count == 2
+    }
+
+    def "CPS methods are counted including recursive calls"() {
+        given:
+        def instance = loader.parseClass('''
+class Counter {
+    def countDown(int value) {
+        if (value > 0)
+            countDown(value - 1)
+        "done"
+    }
+}
+''').newInstance()
+
+        when:
+        def result = execute { instance.countDown(3) }
+
+        then:
+        result == "done"
+        CpsMethodStatistics.entries["Counter.countDown(int)"].count == 4
+    }
+
+    def "methods leaving by exception are counted"() {
+        given:
+        def instance = loader.parseClass('''
+class Failing {
+    @NonCPS
+    void fail() {
+        throw new IllegalStateException()
+    }
+}
+''').newInstance()
+
+        when:
+        instance.fail()
+
+        then:
+        thrown(IllegalStateException)
+        CpsMethodStatistics.entries["Failing.fail()"].count == 1
+    }
+
+    def "scoped calls are collected separately"() {
+        given:
+        def instance = loader.parseClass('''
+class Scoped {
+    @NonCPS
+    int value() {
+        return 1
+    }
+}
+''').newInstance()
+
+        when:
+        def scope = CpsMethodStatistics.openScope()
+        instance.value()
+        scope.close()
+        instance.value()
+
+        then:
+        scope.entries["Scoped.value()"].count == 1
+        CpsMethodStatistics.entries["Scoped.value()"].count == 1
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovy.cps.astchecker
+
+import com.cloudbees.groovy.cps.CpsTransformer
+import groovy.transform.TypeChecked
+import org.codehaus.groovy.control.CompilationUnit
+import org.codehaus.groovy.control.CompilerConfiguration
+import org.codehaus.groovy.control.Phases
+import org.codehaus.groovy.control.SourceUnit
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer
+import org.codehaus.groovy.control.customizers.ImportCustomizer
+import spock.lang.Specification
+
+import static com.blackbuild.groovy.cps.astchecker.CpsMethodClassification.Kind.CPS
+import static com.blackbuild.groovy.cps.astchecker.CpsMethodClassification.Kind.NON_CPS
+
+class CpsMethodClassificationSpec extends Specification {
+
+    CompilationUnit unit
+
+    def setup() {
+        def configuration = new CompilerConfiguration()
+        configuration.addCompilationCustomizers(new ImportCustomizer().addStarImports("com.cloudbees.groovy.cps"))
+        configuration.addCompilationCustomizers(new CpsTransformer())
+        configuration.addCompilationCustomizers(new ASTTransformationCustomizer(TypeChecked, AstChecker.name))
+        unit = new CompilationUnit(configuration)
+    }
+
+    def "methods are classified once per compilation unit"() {
+        given:
+        unit.addSource("First.groovy", '''
+class First {
+    def cps() {}
+
+    @NonCPS
+    def helper() {}
+
+    @NonCPS
+    def caller() {
+        helper()
+        helper()
+        helper()
+    }
+}
+''')
+        unit.addSource("Second.groovy", '''
+class Second {
+    @NonCPS
+    def caller(First first) {
+        first.helper()
+        first.helper()
+    }
+}
+''')
+
+        when:
+        unit.compile(Phases.INSTRUCTION_SELECTION)
+        List<SourceUnit> sources = unit.iterator().toList()
+        def classification = CpsMethodClassification.of(sources[0])
+
+        then:
+        CpsMethodClassification.of(sources[1]).is(classification)
+        classification.hits >= 4 // helper() is looked up for every call
+
+        and:
+        def first = unit.AST.getClass("First")
+        classification.classify(first.getDeclaredMethods("cps")[0]) == CPS
+        classification.classify(first.getDeclaredMethods("helper")[0]) == NON_CPS
+    }
+}
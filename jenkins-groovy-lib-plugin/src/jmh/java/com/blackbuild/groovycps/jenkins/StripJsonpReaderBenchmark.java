@@ -0,0 +1,170 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.jenkins;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.BufferedReader;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Compares {@link StripJsonpReader} with the previous stream based implementation on a payload with
+ * the size and shape of the official update center (about 2000 plugins, several MB).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StripJsonpReaderBenchmark {
+
+    private static final int PLUGIN_COUNT = 2000;
+
+    private String updateCenter;
+    private final char[] target = new char[8192];
+
+    @Setup
+    public void createPayload() {
+        StringBuilder json = new StringBuilder("updateCenter.post(\n{\"connectionCheckUrl\":\"https://www.google.com/\",\"plugins\":{");
+        for (int i = 0; i < PLUGIN_COUNT; i++) {
+            if (i > 0)
+                json.append(',');
+            json.append("\"plugin-").append(i).append("\":{\"buildDate\":\"Jan 01, 2023\",\"dependencies\":[");
+            for (int d = 0; d < 8; d++) {
+                if (d > 0)
+                    json.append(',');
+                json.append("{\"name\":\"plugin-").append((i + d) % PLUGIN_COUNT).append("\",\"optional\":false,\"version\":\"1.").append(d).append("\"}");
+            }
+            json.append("],\"excerpt\":\"");
+            for (int w = 0; w < 20; w++)
+                json.append("lorem ipsum dolor sit amet ");
+            json.append("\",\"gav\":\"org.jenkins-ci.plugins:plugin-").append(i).append(":1.").append(i)
+                    .append("\",\"labels\":[\"pipeline\",\"misc\"],\"popularity\":").append(i * 17)
+                    .append(",\"url\":\"https://updates.jenkins.io/download/plugins/plugin-").append(i).append("/1.").append(i).append("/plugin-").append(i).append(".hpi\"}");
+        }
+        json.append("}}\n);");
+        updateCenter = json.toString();
+    }
+
+    @Benchmark
+    public long bulkRead() throws IOException {
+        return drain(new StripJsonpReader(new StringReader(updateCenter)));
+    }
+
+    @Benchmark
+    public long bulkReadLegacy() throws IOException {
+        return drain(new LegacyStripJsonpReader(new StringReader(updateCenter)));
+    }
+
+    @Benchmark
+    public long singleCharRead() throws IOException {
+        return drainSingle(new StripJsonpReader(new StringReader(updateCenter)));
+    }
+
+    @Benchmark
+    public long singleCharReadLegacy() throws IOException {
+        return drainSingle(new LegacyStripJsonpReader(new StringReader(updateCenter)));
+    }
+
+    private long drain(Reader reader) throws IOException {
+        long total = 0;
+        int count;
+        while ((count = reader.read(target, 0, target.length)) != -1)
+            total += count;
+        return total;
+    }
+
+    private long drainSingle(Reader reader) throws IOException {
+        long total = 0;
+        int c;
+        while ((c = reader.read()) != -1)
+            total += c;
+        return total;
+    }
+
+    /**
+     * The stream based implementation before switching to bulk scanning.
+     */
+    static class LegacyStripJsonpReader extends FilterReader {
+
+        private boolean startStripped;
+        private boolean endFound;
+
+        LegacyStripJsonpReader(Reader in) {
+            super(in instanceof BufferedReader ? in : new BufferedReader(in));
+        }
+
+        @Override
+        public int read() throws IOException {
+            stripStart();
+            if (endFound)
+                return -1;
+
+            int result = super.read();
+
+            if ((char) result == '\n' || (char) result == '\r') {
+                endFound = true;
+                return -1;
+            }
+
+            return result;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            stripStart();
+            if (endFound)
+                return -1;
+
+            int count = super.read(cbuf, off, len);
+
+            if (count == -1)
+                return -1;
+
+            int index = IntStream.range(off, off + count).filter(i -> cbuf[i] == '\n' || cbuf[i] == '\r').findFirst().orElse(-1);
+
+            if (index != -1) {
+                endFound = true;
+                return index - off;
+            }
+            return count;
+        }
+
+        private void stripStart() throws IOException {
+            if (startStripped)
+                return;
+            ((BufferedReader) in).readLine();
+            startStripped = true;
+        }
+    }
+}
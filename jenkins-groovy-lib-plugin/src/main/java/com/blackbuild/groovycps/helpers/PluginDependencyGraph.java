@@ -0,0 +1,128 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Precomputed graph of required plugin dependencies, as stored by the update plugin mapping task. Each line of
+ * the underlying properties file maps a plugin short name to a comma separated list of
+ * <code>shortName:minimumVersion</code> entries.
+ */
+public class PluginDependencyGraph {
+
+    private final Map<String, String> dependencies;
+
+    private PluginDependencyGraph(Map<String, String> dependencies) {
+        this.dependencies = dependencies;
+    }
+
+    public static PluginDependencyGraph load(File file) throws IOException {
+        if (!file.isFile())
+            return new PluginDependencyGraph(Collections.emptyMap());
+        return new PluginDependencyGraph(MappingUtil.loadPropertiesFromFile(file));
+    }
+
+    /**
+     * Formats a list of dependencies in the format used by the properties file. Dependencies without a version
+     * are written as the bare name.
+     */
+    public static String format(Map<String, String> dependencies) {
+        StringBuilder result = new StringBuilder();
+        dependencies.forEach((name, version) -> {
+            if (result.length() > 0)
+                result.append(',');
+            result.append(name);
+            if (version != null)
+                result.append(':').append(version);
+        });
+        return result.toString();
+    }
+
+    /**
+     * Returns the transitive closure of required dependencies of the given plugins, not including the plugins
+     * themselves, unless they are dependencies of other plugins.
+     *
+     * @param shortNames the plugins to start with
+     * @return map of plugin short names to the highest required minimum version
+     */
+    public Map<String, String> closure(Collection<String> shortNames) {
+        Map<String, String> result = new LinkedHashMap<>();
+        Deque<String> queue = new ArrayDeque<>(shortNames);
+        while (!queue.isEmpty()) {
+            String value = dependencies.get(queue.poll());
+            if (value == null || value.isEmpty())
+                continue;
+            for (String dependency : value.split(",")) {
+                int separator = dependency.indexOf(':');
+                String name = separator == -1 ? dependency : dependency.substring(0, separator);
+                String version = separator == -1 ? null : dependency.substring(separator + 1);
+                boolean known = result.containsKey(name);
+                result.merge(name, version == null ? "" : version, PluginDependencyGraph::maxVersion);
+                if (!known)
+                    queue.add(name);
+            }
+        }
+        result.replaceAll((name, version) -> version.isEmpty() ? null : version);
+        return result;
+    }
+
+    static String maxVersion(String first, String second) {
+        return compareVersions(first, second) >= 0 ? first : second;
+    }
+
+    /**
+     * Simple version comparison, numeric segments are compared as numbers, everything else lexically.
+     */
+    static int compareVersions(String first, String second) {
+        String[] firstParts = first.split("[.-]");
+        String[] secondParts = second.split("[.-]");
+        for (int i = 0; i < Math.max(firstParts.length, secondParts.length); i++) {
+            String a = i < firstParts.length ? firstParts[i] : "";
+            String b = i < secondParts.length ? secondParts[i] : "";
+            int cmp = isNumeric(a) && isNumeric(b)
+                    ? Long.compare(Long.parseLong(a), Long.parseLong(b))
+                    : a.compareTo(b);
+            if (cmp != 0)
+                return cmp;
+        }
+        return 0;
+    }
+
+    private static boolean isNumeric(String value) {
+        if (value.isEmpty() || value.length() > 18)
+            return false;
+        for (int i = 0; i < value.length(); i++)
+            if (!Character.isDigit(value.charAt(i)))
+                return false;
+        return true;
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.helpers;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact, memory mapped index of plugin mapping and plugin versions. The index is generated from the
+ * mapping and versions properties files and only regenerated if the content of one of those changes. The header
+ * stores length, modification time and SHA-256 hash of both files, a file is only hashed again if its length or
+ * modification time differs, so checking an unchanged index stays cheap. Lookups are binary
+ * searches on the mapped file, strings are stored only once and are decoded lazily, so the cost of using the
+ * index does not depend on the number of plugins in the update center.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public class PluginIndex {
+
+    static final int MAGIC = 0x4a504958; // JPIX
+    static final int FORMAT_VERSION = 3;
+    private static final int HASH_SIZE = 32;
+    private static final int FILE_STATE_SIZE = 8 + 8 + HASH_SIZE;
+    private static final int MAPPING_STATE = 4 + 4;
+    private static final int VERSIONS_STATE = MAPPING_STATE + FILE_STATE_SIZE;
+    private static final int HEADER_SIZE = VERSIONS_STATE + FILE_STATE_SIZE;
+    private static final int NO_VALUE = -1;
+    private static final int SHORT_NAME = 0;
+    private static final int GROUP = 1;
+    private static final int ARTIFACT = 2;
+    private static final int VERSION = 3;
+    private static final int ENTRY_SIZE = 4;
+
+    private final ByteBuffer buffer;
+    private final int stringCount;
+    private final int stringOffsetsStart;
+    private final int entryCount;
+    private final int entriesStart;
+    private final int gaOrderStart;
+    private final int stringDataStart;
+    private final String[] strings;
+
+    private PluginIndex(ByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION)
+            throw new IllegalArgumentException("Not a valid plugin index");
+        stringCount = buffer.getInt(HEADER_SIZE);
+        stringOffsetsStart = HEADER_SIZE + 4;
+        entryCount = buffer.getInt(stringOffsetsStart + stringCount * 4);
+        entriesStart = stringOffsetsStart + stringCount * 4 + 4;
+        gaOrderStart = entriesStart + entryCount * ENTRY_SIZE * 4;
+        stringDataStart = gaOrderStart + entryCount * 4;
+        strings = new String[stringCount];
+    }
+
+    /**
+     * Loads the index from the given file, (re-)generating it if it is missing or outdated.
+     * Missing properties files are treated as empty.
+     * @param indexFile the index file
+     * @param mappingFile the plugin mapping, short name to group:artifact
+     * @param versionsFile the plugin versions, short name to version
+     */
+    public static PluginIndex load(File indexFile, File mappingFile, File versionsFile) throws IOException {
+        if (!isUpToDate(indexFile, mappingFile, versionsFile))
+            write(indexFile, mappingFile, versionsFile);
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new PluginIndex(mapped);
+        }
+    }
+
+    /**
+     * Returns the group and artifact (separated by ':') for the given short name or <code>null</code>.
+     */
+    public String getGroupAndArtifact(String shortName) {
+        int entry = findByShortName(shortName);
+        if (entry == NO_VALUE)
+            return null;
+        return getString(entryField(entry, GROUP)) + ":" + getString(entryField(entry, ARTIFACT));
+    }
+
+    /**
+     * Returns the version of the plugin with the given group and artifact (separated by ':') or <code>null</code>.
+     */
+    public String getVersion(String groupAndArtifact) {
+        int separator = groupAndArtifact.indexOf(':');
+        if (separator == -1)
+            return null;
+        int entry = findByGroupAndArtifact(groupAndArtifact.substring(0, separator), groupAndArtifact.substring(separator + 1));
+        if (entry == NO_VALUE)
+            return null;
+        int version = entryField(entry, VERSION);
+        return version == NO_VALUE ? null : getString(version);
+    }
+
+    /**
+     * Returns true if length and modification time of the given properties files still match the ones this index
+     * was created from. Otherwise, {@link #load} compares the content to decide whether the index is outdated.
+     */
+    public boolean isCurrent(File mappingFile, File versionsFile) {
+        return hasSameState(buffer, MAPPING_STATE, mappingFile) && hasSameState(buffer, VERSIONS_STATE, versionsFile);
+    }
+
+    /**
+     * Returns the number of plugins in this index.
+     */
+    public int size() {
+        return entryCount;
+    }
+
+    private int findByShortName(String shortName) {
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = getString(entryField(mid, SHORT_NAME)).compareTo(shortName);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return NO_VALUE;
+    }
+
+    private int findByGroupAndArtifact(String group, String artifact) {
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = buffer.getInt(gaOrderStart + mid * 4);
+            int cmp = getString(entryField(entry, GROUP)).compareTo(group);
+            if (cmp == 0)
+                cmp = getString(entryField(entry, ARTIFACT)).compareTo(artifact);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return entry;
+        }
+        return NO_VALUE;
+    }
+
+    private int entryField(int entry, int field) {
+        return buffer.getInt(entriesStart + (entry * ENTRY_SIZE + field) * 4);
+    }
+
+    private String getString(int index) {
+        String result = strings[index];
+        if (result != null)
+            return result;
+        int offset = stringDataStart + buffer.getInt(stringOffsetsStart + index * 4);
+        int length = buffer.getInt(offset);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = buffer.get(offset + 4 + i);
+        result = new String(bytes, StandardCharsets.UTF_8);
+        strings[index] = result;
+        return result;
+    }
+
+    // if the properties files were only touched, the header is updated, so they are not hashed again next time
+    private static boolean isUpToDate(File indexFile, File mappingFile, File versionsFile) {
+        if (!indexFile.isFile() || indexFile.length() < HEADER_SIZE)
+            return false;
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) != -1) {
+                // read complete header
+            }
+            if (header.getInt(0) != MAGIC || header.getInt(4) != FORMAT_VERSION)
+                return false;
+            if (hasSameState(header, MAPPING_STATE, mappingFile) && hasSameState(header, VERSIONS_STATE, versionsFile))
+                return true;
+            if (!hasSameContent(header, MAPPING_STATE, mappingFile) || !hasSameContent(header, VERSIONS_STATE, versionsFile))
+                return false;
+            header.putLong(MAPPING_STATE, length(mappingFile)).putLong(MAPPING_STATE + 8, mappingFile.lastModified());
+            header.putLong(VERSIONS_STATE, length(versionsFile)).putLong(VERSIONS_STATE + 8, versionsFile.lastModified());
+            header.rewind();
+            channel.write(header, 0);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean hasSameState(ByteBuffer header, int position, File file) {
+        return header.getLong(position) == length(file) && header.getLong(position + 8) == file.lastModified();
+    }
+
+    private static boolean hasSameContent(ByteBuffer header, int position, File file) throws IOException {
+        if (hasSameState(header, position, file))
+            return true;
+        byte[] storedHash = new byte[HASH_SIZE];
+        for (int i = 0; i < HASH_SIZE; i++)
+            storedHash[i] = header.get(position + 16 + i);
+        return Arrays.equals(storedHash, hash(file));
+    }
+
+    private static long length(File file) {
+        return file.isFile() ? file.length() : NO_VALUE;
+    }
+
+    /**
+     * SHA-256 of the file content, a missing file is hashed like an empty one, since both result in an empty index.
+     */
+    private static byte[] hash(File file) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            if (file.isFile())
+                digest.update(Files.readAllBytes(file.toPath()));
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static void write(File indexFile, File mappingFile, File versionsFile) throws IOException {
+        // the state is taken before reading, so a concurrent change is detected by the next load
+        long mappingLength = length(mappingFile);
+        long mappingModified = mappingFile.lastModified();
+        byte[] mappingHash = hash(mappingFile);
+        long versionsLength = length(versionsFile);
+        long versionsModified = versionsFile.lastModified();
+        byte[] versionsHash = hash(versionsFile);
+        Map<String, String> mapping = mappingFile.isFile() ? MappingUtil.loadPropertiesFromFile(mappingFile) : Collections.emptyMap();
+        Map<String, String> versions = versionsFile.isFile() ? MappingUtil.loadPropertiesFromFile(versionsFile) : Collections.emptyMap();
+
+        List<String> shortNames = new ArrayList<>(mapping.keySet());
+        Collections.sort(shortNames);
+
+        Map<String, Integer> stringTable = new LinkedHashMap<>();
+        int[][] entries = new int[shortNames.size()][];
+        for (int i = 0; i < shortNames.size(); i++) {
+            String shortName = shortNames.get(i);
+            String ga = mapping.get(shortName);
+            int separator = ga.indexOf(':');
+            String version = versions.get(shortName);
+            entries[i] = new int[] {
+                    intern(stringTable, shortName),
+                    intern(stringTable, separator == -1 ? ga : ga.substring(0, separator)),
+                    intern(stringTable, separator == -1 ? "" : ga.substring(separator + 1)),
+                    version == null ? NO_VALUE : intern(stringTable, version)
+            };
+        }
+
+        List<String> stringList = new ArrayList<>(stringTable.keySet());
+        List<Integer> gaOrder = new ArrayList<>();
+        for (int i = 0; i < entries.length; i++)
+            gaOrder.add(i);
+        gaOrder.sort(Comparator.<Integer, String>comparing(e -> stringList.get(entries[e][GROUP]))
+                .thenComparing(e -> stringList.get(entries[e][ARTIFACT])));
+
+        Path target = indexFile.toPath();
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), indexFile.getName(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(mappingLength);
+                out.writeLong(mappingModified);
+                out.write(mappingHash);
+                out.writeLong(versionsLength);
+                out.writeLong(versionsModified);
+                out.write(versionsHash);
+
+                List<byte[]> encoded = new ArrayList<>(stringList.size());
+                out.writeInt(stringList.size());
+                int offset = 0;
+                for (String value : stringList) {
+                    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                    encoded.add(bytes);
+                    out.writeInt(offset);
+                    offset += 4 + bytes.length;
+                }
+
+                out.writeInt(entries.length);
+                for (int[] entry : entries)
+                    for (int field : entry)
+                        out.writeInt(field);
+                for (int entry : gaOrder)
+                    out.writeInt(entry);
+
+                for (byte[] bytes : encoded) {
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static int intern(Map<String, Integer> stringTable, String value) {
+        return stringTable.computeIfAbsent(value, v -> stringTable.size());
+    }
+}
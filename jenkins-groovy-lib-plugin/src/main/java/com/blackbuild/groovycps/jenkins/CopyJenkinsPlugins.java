@@ -0,0 +1,208 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.jenkins;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileType;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.ChangeType;
+import org.gradle.work.Incremental;
+import org.gradle.work.InputChanges;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Synchronizes the resolved Jenkins plugins into the plugin directory used by the Jenkins test harness. Only
+ * added or changed plugins are transferred, plugins no longer present are removed. Plugins are hard linked
+ * if possible and copied otherwise, the work is distributed to the Gradle worker pool. The index file
+ * is replaced atomically. Fails if two plugins would be written to the same file.
+ */
+public abstract class CopyJenkinsPlugins extends DefaultTask {
+
+    static final String INDEX_FILE = "index";
+
+    /**
+     * The resolved plugin archives.
+     */
+    @Incremental
+    @InputFiles
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract ConfigurableFileCollection getPlugins();
+
+    /**
+     * Maps the file names of the resolved plugin archives to the file names in the plugin directory.
+     */
+    @Input
+    public abstract MapProperty<String, String> getTargetNames();
+
+    @OutputDirectory
+    public abstract DirectoryProperty getDestinationDir();
+
+    /**
+     * Whether plugins should be hard linked instead of copied. Falls back to copying if the file system
+     * does not support links.
+     */
+    @Internal
+    public abstract Property<Boolean> getUseHardLinks();
+
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
+
+    protected CopyJenkinsPlugins() {
+        getUseHardLinks().convention(true);
+    }
+
+    @TaskAction
+    public void syncPlugins(InputChanges inputChanges) {
+        File destination = getDestinationDir().get().getAsFile();
+        Map<String, String> targetNames = getTargetNames().get();
+        checkForDuplicateTargets(targetNames);
+        WorkQueue queue = getWorkerExecutor().noIsolation();
+
+        if (inputChanges.isIncremental()) {
+            inputChanges.getFileChanges(getPlugins()).forEach(change -> {
+                if (change.getFileType() != FileType.FILE || change.getChangeType() == ChangeType.REMOVED)
+                    return;
+                submit(queue, change.getFile(), destination, targetNames);
+            });
+        } else {
+            getPlugins().forEach(plugin -> submit(queue, plugin, destination, targetNames));
+        }
+        queue.await();
+
+        Set<String> expected = new TreeSet<>(targetNames.values());
+        removeStalePlugins(destination, expected);
+        writeIndex(new File(destination, INDEX_FILE), expected);
+    }
+
+    // concurrent workers writing the same target would produce an arbitrary result
+    private void checkForDuplicateTargets(Map<String, String> targetNames) {
+        Map<String, File> sources = new HashMap<>();
+        for (File plugin : getPlugins()) {
+            String targetName = targetNames.get(plugin.getName());
+            if (targetName == null)
+                continue;
+            File previous = sources.putIfAbsent(targetName, plugin);
+            if (previous != null && !previous.equals(plugin))
+                throw new GradleException(String.format("The plugins %s and %s would both be copied to %s, exclude one of them from the jenkinsPlugins configuration",
+                        previous, plugin, targetName));
+        }
+    }
+
+    private void submit(WorkQueue queue, File plugin, File destination, Map<String, String> targetNames) {
+        String targetName = targetNames.get(plugin.getName());
+        if (targetName == null)
+            return;
+        queue.submit(LinkPlugin.class, p -> {
+            p.getSource().set(plugin);
+            p.getTarget().set(new File(destination, targetName));
+            p.getUseHardLinks().set(getUseHardLinks());
+        });
+    }
+
+    private void removeStalePlugins(File destination, Collection<String> expected) {
+        File[] existing = destination.listFiles((dir, name) -> name.endsWith(".hpi") || name.endsWith(".jpi"));
+        if (existing == null)
+            return;
+        for (File file : existing) {
+            if (!expected.contains(file.getName()) && !file.delete())
+                throw new GradleException("Could not delete stale plugin " + file);
+        }
+    }
+
+    private void writeIndex(File indexFile, Collection<String> pluginFiles) {
+        Path target = indexFile.toPath();
+        try {
+            Path temp = Files.createTempFile(target.getParent(), INDEX_FILE, ".tmp");
+            try (PrintWriter writer = new PrintWriter(temp.toFile())) {
+                pluginFiles.stream().map(l -> l.substring(0, l.length() - 4)).forEach(writer::println);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new GradleException("Could not write index file", e);
+        }
+    }
+
+    /**
+     * Links or copies a single plugin into the plugin directory.
+     */
+    public abstract static class LinkPlugin implements WorkAction<LinkPlugin.Parameters> {
+
+        public interface Parameters extends WorkParameters {
+            RegularFileProperty getSource();
+            RegularFileProperty getTarget();
+            Property<Boolean> getUseHardLinks();
+        }
+
+        @Override
+        public void execute() {
+            Path source = getParameters().getSource().get().getAsFile().toPath();
+            Path target = getParameters().getTarget().get().getAsFile().toPath();
+            try {
+                Files.deleteIfExists(target);
+                if (!getParameters().getUseHardLinks().get() || !tryLink(source, target))
+                    Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw new GradleException("Could not copy plugin " + source, e);
+            }
+        }
+
+        private static boolean tryLink(Path source, Path target) {
+            try {
+                Files.createLink(target, source);
+                return true;
+            } catch (IOException | UnsupportedOperationException e) {
+                // different file stores or no link support
+                return false;
+            }
+        }
+    }
+}
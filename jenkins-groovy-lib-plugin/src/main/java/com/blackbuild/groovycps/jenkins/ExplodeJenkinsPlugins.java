@@ -0,0 +1,228 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.jenkins;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Enumeration;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Explodes the plugins of the plugin directory into a content addressed cache (keyed by the SHA-256 of each
+ * archive), so each plugin version is only unpacked once per machine. The exploded directory contains one directory
+ * per plugin short name and can be used as <code>hudson.PluginManager.workDir</code>. Each of these directories links
+ * the entries of the cache and owns its own <code>.timestamp2</code> matching the archive of this project, since
+ * archives with the same content can have different modification times in different projects.
+ */
+public abstract class ExplodeJenkinsPlugins extends DefaultTask {
+
+    /**
+     * System property used by Jenkins to determine where plugins are exploded.
+     */
+    public static final String PLUGIN_WORK_DIR_PROPERTY = "hudson.PluginManager.workDir";
+
+    /**
+     * File used by Jenkins to mark an exploded plugin as up to date, its timestamp must match the archive.
+     */
+    static final String TIMESTAMP_FILE = ".timestamp2";
+
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract DirectoryProperty getPluginDirectory();
+
+    @Internal
+    public abstract DirectoryProperty getCacheDirectory();
+
+    @OutputDirectory
+    public abstract DirectoryProperty getExplodedDirectory();
+
+    @TaskAction
+    public void explodePlugins() throws IOException {
+        Path exploded = getExplodedDirectory().get().getAsFile().toPath();
+        Path cache = getCacheDirectory().get().getAsFile().toPath();
+        clear(exploded);
+        Files.createDirectories(cache);
+
+        File[] plugins = getPluginDirectory().get().getAsFile().listFiles((dir, name) -> name.endsWith(".hpi") || name.endsWith(".jpi"));
+        if (plugins == null)
+            return;
+        for (File plugin : plugins) {
+            Path cached = explodeToCache(plugin, cache);
+            String shortName = plugin.getName().substring(0, plugin.getName().length() - 4);
+            populate(plugin, cached, exploded.resolve(shortName));
+        }
+    }
+
+    private Path explodeToCache(File plugin, Path cache) throws IOException {
+        Path target = cache.resolve(checksum(plugin));
+        if (Files.isDirectory(target))
+            return target;
+
+        getLogger().info("Exploding {} into {}", plugin.getName(), target);
+        Path temp = Files.createTempDirectory(cache, target.getFileName().toString());
+        try {
+            unzip(plugin, temp);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // another build might have exploded the same plugin concurrently
+            if (!Files.isDirectory(target))
+                throw e;
+        } finally {
+            if (Files.exists(temp))
+                deleteTree(temp);
+        }
+        return target;
+    }
+
+    private static void populate(File plugin, Path cached, Path target) throws IOException {
+        Files.createDirectories(target);
+        try (Stream<Path> entries = Files.list(cached)) {
+            for (Path entry : (Iterable<Path>) entries::iterator) {
+                // caches created by older versions contain a marker of whichever archive was exploded first
+                if (!entry.getFileName().toString().equals(TIMESTAMP_FILE))
+                    link(entry, target.resolve(entry.getFileName().toString()));
+            }
+        }
+        Path timestamp = Files.createFile(target.resolve(TIMESTAMP_FILE));
+        Files.setLastModifiedTime(timestamp, FileTime.fromMillis(plugin.lastModified()));
+    }
+
+    private static void link(Path cached, Path target) throws IOException {
+        try {
+            Files.createSymbolicLink(target, cached);
+        } catch (IOException | UnsupportedOperationException e) {
+            copyTree(cached, target);
+        }
+    }
+
+    private static void unzip(File archive, Path target) throws IOException {
+        try (ZipFile zip = new ZipFile(archive)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                Path destination = target.resolve(entry.getName()).normalize();
+                if (!destination.startsWith(target))
+                    throw new GradleException("Illegal entry " + entry.getName() + " in " + archive);
+                if (entry.isDirectory()) {
+                    Files.createDirectories(destination);
+                } else {
+                    Files.createDirectories(destination.getParent());
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        Files.copy(in, destination);
+                    }
+                }
+            }
+        }
+    }
+
+    private static String checksum(File file) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (InputStream in = new DigestInputStream(Files.newInputStream(file.toPath()), digest)) {
+                byte[] buffer = new byte[64 * 1024];
+                //noinspection StatementWithEmptyBody
+                while (in.read(buffer) != -1) {
+                    // only digesting
+                }
+            }
+            StringBuilder result = new StringBuilder();
+            for (byte b : digest.digest())
+                result.append(String.format("%02x", b));
+            return result.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new GradleException("Could not create checksum", e);
+        }
+    }
+
+    private static void clear(Path directory) throws IOException {
+        if (!Files.isDirectory(directory))
+            return;
+        try (Stream<Path> entries = Files.list(directory)) {
+            for (Path entry : (Iterable<Path>) entries::iterator)
+                deleteTree(entry);
+        }
+    }
+
+    private static void copyTree(Path source, Path target) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.copy(file, target.resolve(source.relativize(file)), StandardCopyOption.COPY_ATTRIBUTES);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Deletes the given tree, links into the shared cache are deleted without being followed.
+     */
+    private static void deleteTree(Path root) throws IOException {
+        if (Files.isSymbolicLink(root)) {
+            Files.delete(root);
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
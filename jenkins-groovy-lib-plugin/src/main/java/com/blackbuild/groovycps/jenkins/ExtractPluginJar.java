@@ -0,0 +1,173 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.jenkins;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.artifacts.transform.CacheableTransform;
+import org.gradle.api.artifacts.transform.InputArtifact;
+import org.gradle.api.artifacts.transform.TransformAction;
+import org.gradle.api.artifacts.transform.TransformOutputs;
+import org.gradle.api.artifacts.transform.TransformParameters;
+import org.gradle.api.attributes.Attribute;
+import org.gradle.api.file.FileSystemLocation;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Artifact transform that replaces a plugin archive (hpi/jpi) with the jars it contains, so plugins can be put
+ * on the compile and runtime classpath directly. Extracts the plugin's own jar and, for older plugins, packages
+ * <code>WEB-INF/classes</code> into a jar.
+ * <p>
+ * Bundled libraries from <code>WEB-INF/lib</code> are dependencies of the plugin's POM, so Gradle already puts
+ * them on the classpath. Only libraries without Maven metadata (<code>META-INF/maven/.../pom.properties</code>)
+ * have no POM counterpart and are extracted as well.
+ * <p>
+ * The result only depends on the content of the archive, so the transform is cacheable and relocatable.
+ */
+@CacheableTransform
+public abstract class ExtractPluginJar implements TransformAction<TransformParameters.None> {
+
+    /**
+     * Attribute requested by the classpath configurations, hpi and jpi artifacts are marked with <code>false</code>.
+     */
+    public static final Attribute<Boolean> PLUGIN_JAR_EXTRACTED = Attribute.of("com.blackbuild.jenkins.pluginJarExtracted", Boolean.class);
+
+    private static final String LIB_PREFIX = "WEB-INF/lib/";
+    private static final String CLASSES_PREFIX = "WEB-INF/classes/";
+    private static final String MAVEN_PREFIX = "META-INF/maven/";
+    // fixed timestamp for reproducible jars
+    private static final LocalDateTime ENTRY_TIME = LocalDateTime.of(1980, 2, 1, 0, 0);
+
+    @InputArtifact
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract Provider<FileSystemLocation> getInputArtifact();
+
+    @Override
+    public void transform(TransformOutputs outputs) {
+        File plugin = getInputArtifact().get().getAsFile();
+        String baseName = plugin.getName().substring(0, plugin.getName().length() - 4);
+
+        try (ZipFile zip = new ZipFile(plugin)) {
+            List<ZipEntry> libraries = new ArrayList<>();
+            List<ZipEntry> classes = new ArrayList<>();
+            collectEntries(zip, libraries, classes);
+
+            ZipEntry pluginJar = findPluginJar(libraries, baseName);
+            if (pluginJar != null) {
+                extract(zip, pluginJar, outputs);
+                libraries.remove(pluginJar);
+            }
+            if (!classes.isEmpty())
+                packageClasses(zip, classes, outputs.file(baseName + "-classes.jar"));
+            libraries.sort((a, b) -> a.getName().compareTo(b.getName()));
+            for (ZipEntry library : libraries)
+                if (!hasMavenMetadata(zip, library))
+                    extract(zip, library, outputs);
+        } catch (IOException e) {
+            throw new GradleException("Could not extract plugin jars from " + plugin, e);
+        }
+    }
+
+    private static void collectEntries(ZipFile zip, List<ZipEntry> libraries, List<ZipEntry> classes) {
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            String name = entry.getName();
+            if (entry.isDirectory())
+                continue;
+            if (name.startsWith(LIB_PREFIX) && name.endsWith(".jar") && name.indexOf('/', LIB_PREFIX.length()) == -1)
+                libraries.add(entry);
+            else if (name.startsWith(CLASSES_PREFIX))
+                classes.add(entry);
+        }
+    }
+
+    /**
+     * The plugin jar is named after the artifact, which is the file name of the archive without the version.
+     */
+    private static ZipEntry findPluginJar(List<ZipEntry> libraries, String baseName) {
+        ZipEntry result = null;
+        int resultLength = -1;
+        for (ZipEntry entry : libraries) {
+            String jarName = jarName(entry);
+            if ((baseName.equals(jarName) || baseName.startsWith(jarName + "-")) && jarName.length() > resultLength) {
+                result = entry;
+                resultLength = jarName.length();
+            }
+        }
+        return result;
+    }
+
+    private static boolean hasMavenMetadata(ZipFile zip, ZipEntry library) throws IOException {
+        try (ZipInputStream in = new ZipInputStream(zip.getInputStream(library))) {
+            for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry())
+                if (entry.getName().startsWith(MAVEN_PREFIX) && entry.getName().endsWith("/pom.properties"))
+                    return true;
+        }
+        return false;
+    }
+
+    private static String jarName(ZipEntry entry) {
+        return entry.getName().substring(LIB_PREFIX.length(), entry.getName().length() - 4);
+    }
+
+    private static void extract(ZipFile zip, ZipEntry entry, TransformOutputs outputs) throws IOException {
+        File target = outputs.file(jarName(entry) + ".jar");
+        try (InputStream in = zip.getInputStream(entry)) {
+            Files.copy(in, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void packageClasses(ZipFile zip, List<ZipEntry> classes, File target) throws IOException {
+        classes.sort((a, b) -> a.getName().compareTo(b.getName()));
+        try (OutputStream file = Files.newOutputStream(target.toPath());
+             ZipOutputStream out = new ZipOutputStream(file)) {
+            for (ZipEntry entry : classes) {
+                ZipEntry copy = new ZipEntry(entry.getName().substring(CLASSES_PREFIX.length()));
+                copy.setTimeLocal(ENTRY_TIME);
+                out.putNextEntry(copy);
+                try (InputStream in = zip.getInputStream(entry)) {
+                    in.transferTo(out);
+                }
+                out.closeEntry();
+            }
+        }
+    }
+}
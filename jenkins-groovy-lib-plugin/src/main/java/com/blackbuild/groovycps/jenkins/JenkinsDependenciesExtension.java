@@ -36,6 +36,8 @@ public abstract class JenkinsDependenciesExtension {
 
     public static final String DEFAULT_PLUGIN_VERSIONS = "plugins/versions.properties";
     public static final String DEFAULT_PLUGIN_MAPPINGS = "plugins/mapping.properties";
+    public static final String DEFAULT_PLUGIN_DEPENDENCIES = "plugins/dependencies.properties";
+    public static final String DEFAULT_PLUGIN_INDEX = "jenkins-plugins/plugins.idx";
     public static final String DEFAULT_JENKINS_UPDATE_CENTER = "https://updates.jenkins.io/current/update-center.json";
     public static final String DEFAULT_JENKINS_VERSION = "2.375.1";
     public static final String DEFAULT_TEST_HARNESS_VERSION = "2129.v09f309d2339c";
@@ -46,10 +48,15 @@ public abstract class JenkinsDependenciesExtension {
         getJenkinsTestHarnessVersion().convention(DEFAULT_TEST_HARNESS_VERSION);
         getPluginVersionsFile().convention(project.getLayout().getProjectDirectory().file(DEFAULT_PLUGIN_VERSIONS));
         getPluginMappingFile().convention(project.getLayout().getProjectDirectory().file(DEFAULT_PLUGIN_MAPPINGS));
+        getPluginDependenciesFile().convention(project.getLayout().getProjectDirectory().file(DEFAULT_PLUGIN_DEPENDENCIES));
+        getPreResolvePluginDependencies().convention(false);
+        getPluginIndexFile().convention(project.getLayout().getBuildDirectory().file(DEFAULT_PLUGIN_INDEX));
         getUpdateCenterUrl().convention(DEFAULT_JENKINS_UPDATE_CENTER);
         getAddJenkinsRepository().convention(true);
         getUseTestHarness().convention(false);
         getPluginDirectory().convention(project.getLayout().getBuildDirectory().dir("jenkins-plugins/test-dependencies"));
+        getExplodePlugins().convention(false);
+        getExplodedPluginDirectory().convention(project.getLayout().getBuildDirectory().dir("exploded-plugins"));
     }
 
     public abstract Property<String> getJenkinsVersion();
@@ -68,6 +75,26 @@ public abstract class JenkinsDependenciesExtension {
     public abstract RegularFileProperty getPluginVersionsFile();
     public abstract RegularFileProperty getPluginMappingFile();
 
+    /**
+     * Precomputed dependency graph of all plugins, written by the updatePluginMappings task.
+     */
+    public abstract RegularFileProperty getPluginDependenciesFile();
+
+    /**
+     * If set, the transitive closure of the requested plugins is taken from the precomputed dependency graph
+     * and added directly to the jenkinsPlugins configuration.
+     */
+    public abstract Property<Boolean> getPreResolvePluginDependencies();
+
+    public void preResolvePluginDependencies() {
+        getPreResolvePluginDependencies().set(true);
+    }
+
+    /**
+     * Binary index generated from plugin mapping and plugin versions, used during dependency resolution.
+     */
+    public abstract RegularFileProperty getPluginIndexFile();
+
     public abstract Property<String> getInstalledPluginsUrl();
 
     public abstract Property<String> getUpdateCenterUrl();
@@ -89,4 +116,19 @@ public abstract class JenkinsDependenciesExtension {
     public Provider<RegularFile> getIndexFile() {
         return getPluginDirectory().file("index");
     }
+
+    /**
+     * If set, plugins are exploded once into a machine wide cache and the test harness uses the exploded plugins
+     * instead of unpacking each plugin in every test JVM.
+     */
+    public abstract Property<Boolean> getExplodePlugins();
+
+    public void explodePlugins() {
+        getExplodePlugins().set(true);
+    }
+
+    /**
+     * Directory containing the exploded plugins, passed to the tests as <code>hudson.PluginManager.workDir</code>.
+     */
+    public abstract DirectoryProperty getExplodedPluginDirectory();
 }
@@ -23,43 +23,56 @@
  */
 package com.blackbuild.groovycps.jenkins;
 
+import com.blackbuild.groovycps.helpers.PluginDependencyGraph;
+import com.blackbuild.groovycps.helpers.PluginIndex;
 import org.gradle.api.*;
 import org.gradle.api.artifacts.*;
+import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
+import org.gradle.api.artifacts.dsl.DependencyHandler;
+import org.gradle.api.artifacts.result.ResolvedArtifactResult;
+import org.gradle.api.artifacts.type.ArtifactTypeDefinition;
+import org.gradle.api.file.FileCollection;
 import org.gradle.api.plugins.GroovyPlugin;
 import org.gradle.api.provider.Provider;
-import org.gradle.api.tasks.Copy;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.SourceSetContainer;
 import org.gradle.api.tasks.testing.Test;
+import org.gradle.process.CommandLineArgumentProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
-import static com.blackbuild.groovycps.helpers.MappingUtil.loadPropertiesFromFile;
-import static com.blackbuild.groovycps.helpers.MappingUtil.mapToProperties;
 import static java.lang.String.format;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
 import static java.util.Collections.singletonMap;
+import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toSet;
 
 @SuppressWarnings("unused")
 public class JenkinsDependenciesPlugin implements Plugin<Project> {
 
     public static final String DEFAULT_JENKINS_REPO = "https://repo.jenkins-ci.org/public/";
+    public static final String UPDATE_CENTER_CACHE = "caches/jenkins-groovy-lib/update-center";
+    public static final String EXPLODED_PLUGINS_CACHE = "caches/jenkins-groovy-lib/exploded-plugins";
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private Project project;
     private JenkinsDependenciesExtension extension;
     private Configuration jenkinsCore;
     private Configuration jenkinsPlugins;
-    private Map<String, String> pluginMapping;
-    private Map<String, String> pluginVersions;
-    private Map<String, String> pluginIdToVersions;
+    private Provider<PluginIndexService> pluginIndexService;
+    private PluginIndex pluginIndex;
     private final Map<String, String> explicitPluginVersions = new HashMap<>();
-    private Configuration jenkinsWar;
 
     private static void configureConfiguration(Configuration c) {
         c.setVisible(false);
@@ -72,13 +85,16 @@ public class JenkinsDependenciesPlugin implements Plugin<Project> {
         this.project = project;
         project.getPluginManager().apply(GroovyPlugin.class);
         extension = project.getExtensions().create("jenkins", JenkinsDependenciesExtension.class, project);
+        pluginIndexService = project.getGradle().getSharedServices().registerIfAbsent(PluginIndexService.NAME, PluginIndexService.class, spec -> {});
 
+        createJenkinsConfigurations();
+        addJenkinsCoreDependency();
+        fixCommonDependencyIssues();
+
+        // repositories and test harness configurations are only created if requested
         project.afterEvaluate( p -> {
             addJenkinsRepository();
-            createJenkinsConfigurations();
-            addJenkinsCoreDependency();
             addJenkinsTestHarness();
-            fixCommonDependencyIssues();
         });
 
         createHelperTasks();
@@ -107,69 +123,89 @@ public class JenkinsDependenciesPlugin implements Plugin<Project> {
         project.getTasks().register("updatePluginMappings", UpdatePluginMappings.class, t -> {
             t.setDescription("Updates the plugin mappings from the configured mapping URI");
             t.setGroup("help");
-            t.getUpdateCenterUrl().set(extension.getUpdateCenterUrl());
+            t.getUpdateCenterUrl().set(extension.getUpdateCenterUrl().map(this::resolveUrl));
             t.getPluginMappingFile().set(extension.getPluginMappingFile());
+            t.getPluginDependenciesFile().set(extension.getPluginDependenciesFile());
+            t.getCacheDirectory().set(new File(project.getGradle().getGradleUserHomeDir(), UPDATE_CENTER_CACHE));
         });
         project.getTasks().register("updatePluginVersions", UpdatePluginVersions.class, t -> {
             t.setDescription("Updates the plugin versions from the configured mapping URI");
             t.setGroup("help");
-            t.getInstalledPluginsUrl().set(extension.getInstalledPluginsUrl());
+            t.getInstalledPluginsUrl().set(extension.getInstalledPluginsUrl().map(this::resolveUrl));
             t.getPluginVersionsFile().set(extension.getPluginVersionsFile());
         });
-        project.getTasks().register("copyJenkinsPlugins", Copy.class, t -> {
-            t.setDescription("Copies all jenkins plugins into target directory");
+        project.getTasks().register("copyJenkinsPlugins", CopyJenkinsPlugins.class, t -> {
+            t.setDescription("Synchronizes all jenkins plugins into target directory");
             t.setGroup("build");
-            t.from(jenkinsPlugins);
-            t.into(extension.getPluginDirectory());
-            t.include("*.hpi", "*.jpi");
-            t.rename(name -> pluginIdToVersions.get(name));
-            t.getOutputs().dir(extension.getPluginDirectory());
-            //noinspection Convert2Lambda,NullableProblems -> Gradle does not allow lambdas for task actions (https://docs.gradle.org/7.6/userguide/validation_problems.html#implementation_unknown)
-            t.doLast(new Action<>() {
-                public void execute(Task task) {
-                    File indexFile = extension.getIndexFile().get().getAsFile();
-                    try (PrintWriter writer = new PrintWriter(indexFile)) {
-                        pluginIdToVersions.values().stream().map(l -> l.substring(0, l.length() - 4)).forEach(writer::println);
-                    } catch (IOException e) {
-                        throw new GradleException("Could not write index file", e);
-                    }
-                }
-            });
+            ArtifactCollection artifacts = jenkinsPlugins.getIncoming().getArtifacts();
+            t.getPlugins().from(artifacts.getArtifactFiles());
+            t.getTargetNames().set(artifacts.getResolvedArtifacts().map(JenkinsDependenciesPlugin::toPluginTargetNames));
+            t.getDestinationDir().set(extension.getPluginDirectory());
+        });
+        project.getTasks().register("explodeJenkinsPlugins", ExplodeJenkinsPlugins.class, t -> {
+            t.setDescription("Explodes all jenkins plugins into the shared plugin cache");
+            t.setGroup("build");
+            t.dependsOn("copyJenkinsPlugins");
+            t.getPluginDirectory().set(extension.getPluginDirectory());
+            t.getCacheDirectory().set(new File(project.getGradle().getGradleUserHomeDir(), EXPLODED_PLUGINS_CACHE));
+            t.getExplodedDirectory().set(extension.getExplodedPluginDirectory());
         });
     }
 
+    private String resolveUrl(String url) {
+        return project.uri(url).toString();
+    }
+
+    private static Map<String, String> toPluginTargetNames(Set<ResolvedArtifactResult> artifacts) {
+        return artifacts.stream()
+                .filter(artifact -> isPluginArchive(artifact.getFile()))
+                .filter(artifact -> artifact.getId().getComponentIdentifier() instanceof ModuleComponentIdentifier)
+                .collect(toMap(
+                        a -> a.getFile().getName(),
+                        a -> String.format("%s.hpi", ((ModuleComponentIdentifier) a.getId().getComponentIdentifier()).getModule()),
+                        (a, b) -> a));
+    }
+
+    private static boolean isPluginArchive(File file) {
+        return file.getName().endsWith(".hpi") || file.getName().endsWith(".jpi");
+    }
+
     private void createJenkinsConfigurations() {
         jenkinsCore = project.getConfigurations().create("jenkinsCore", JenkinsDependenciesPlugin::configureConfiguration);
         jenkinsPlugins = project.getConfigurations().create("jenkinsPlugins", JenkinsDependenciesPlugin::configureConfiguration);
         jenkinsPlugins.extendsFrom(jenkinsCore);
         jenkinsPlugins.withDependencies(this::resolvePlugins);
         jenkinsPlugins.resolutionStrategy(this::resolvePluginVersions);
-        project.getConfigurations().getByName("implementation").withDependencies(this::addPluginJarsToConfiguration);
-
-        jenkinsPlugins.getIncoming().afterResolve(this::resolvePluginIds);
+        project.getConfigurations().getByName("implementation").extendsFrom(jenkinsPlugins);
+        configurePluginJarTransform();
     }
 
-    private void resolvePluginIds(ResolvableDependencies resolvableDependencies) {
-        logger.info("Resolving plugin ids");
-        pluginIdToVersions =
-        jenkinsPlugins.getResolvedConfiguration().getResolvedArtifacts().stream()
-                .filter(artifact -> "hpi".equals(artifact.getExtension()) || "jpi".equals(artifact.getExtension()))
-                .collect(toMap(
-                        a -> a.getFile().getName(),
-                        a -> String.format("%s.hpi",a.getName())));
-    }
+    /**
+     * Classpath configurations see the plugin dependencies directly (via implementation), the plugin archives are
+     * replaced by their classes jar using {@link ExtractPluginJar}. Thus, the plugin graph is resolved only once
+     * for each classpath.
+     */
+    private void configurePluginJarTransform() {
+        DependencyHandler dependencies = project.getDependencies();
+        dependencies.getAttributesSchema().attribute(ExtractPluginJar.PLUGIN_JAR_EXTRACTED);
+        for (String pluginType : asList("hpi", "jpi")) {
+            dependencies.getArtifactTypes().maybeCreate(pluginType).getAttributes().attribute(ExtractPluginJar.PLUGIN_JAR_EXTRACTED, false);
+            dependencies.registerTransform(ExtractPluginJar.class, spec -> {
+                spec.getFrom().attribute(ArtifactTypeDefinition.ARTIFACT_TYPE_ATTRIBUTE, pluginType).attribute(ExtractPluginJar.PLUGIN_JAR_EXTRACTED, false);
+                spec.getTo().attribute(ArtifactTypeDefinition.ARTIFACT_TYPE_ATTRIBUTE, ArtifactTypeDefinition.JAR_TYPE).attribute(ExtractPluginJar.PLUGIN_JAR_EXTRACTED, true);
+            });
+        }
 
-    private void addPluginJarsToConfiguration(DependencySet dependencies) {
-        jenkinsPlugins.getResolvedConfiguration().getResolvedArtifacts().forEach(plugin -> copyPluginToImplementation(dependencies, plugin));
+        project.getExtensions().getByType(SourceSetContainer.class).all(sourceSet -> {
+            configureClasspath(sourceSet.getCompileClasspathConfigurationName());
+            configureClasspath(sourceSet.getRuntimeClasspathConfigurationName());
+        });
     }
 
-    private void copyPluginToImplementation(DependencySet dependencies, ResolvedArtifact dep) {
-        ModuleVersionIdentifier moduleVersion = dep.getModuleVersion().getId();
-        String dependencyString = format("%s:%s:%s", moduleVersion.getGroup(), moduleVersion.getName(), moduleVersion.getVersion());
-
-        if ("hpi".equals(dep.getExtension()) || "jpi".equals(dep.getExtension()))
-            dependencies.add(project.getDependencies().create(dependencyString + "@jar"));
-        dependencies.add(project.getDependencies().create(dependencyString));
+    private void configureClasspath(String name) {
+        Configuration classpath = project.getConfigurations().getByName(name);
+        classpath.getAttributes().attribute(ExtractPluginJar.PLUGIN_JAR_EXTRACTED, true);
+        classpath.resolutionStrategy(this::resolvePluginVersions);
     }
 
     private void resolvePluginVersions(ResolutionStrategy resolutionStrategy) {
@@ -177,9 +213,10 @@ public class JenkinsDependenciesPlugin implements Plugin<Project> {
     }
 
     private void resolveSinglePluginVersion(DependencyResolveDetails details) {
+        loadPluginIndex();
         String ga = details.getRequested().getGroup() + ":" + details.getRequested().getName();
         String explicitVersion = explicitPluginVersions.get(ga);
-        String defaultVersion = pluginVersions.get(ga);
+        String defaultVersion = pluginIndex.getVersion(ga);
 
         if (explicitVersion != null)
             details.because("Explicitly requested").useVersion(explicitVersion);
@@ -188,12 +225,37 @@ public class JenkinsDependenciesPlugin implements Plugin<Project> {
     }
 
     private void resolvePlugins(DependencySet plugins) {
-        loadPluginMappings();
-        loadPluginVersions();
+        loadPluginIndex();
         addPluginsByShortName(plugins);
+        addPrecomputedDependencies(plugins);
         plugins.forEach(this::resolveSinglePlugin);
     }
 
+    private void addPrecomputedDependencies(DependencySet plugins) {
+        if (!extension.getPreResolvePluginDependencies().get())
+            return;
+        PluginDependencyGraph graph = pluginIndexService.get().getDependencyGraph(extension.getPluginDependenciesFile().getAsFile().get());
+        Set<String> declared = plugins.stream().map(d -> d.getGroup() + ":" + d.getName()).collect(toSet());
+        List<String> shortNames = plugins.stream().map(this::toShortName).filter(Objects::nonNull).collect(toList());
+
+        graph.closure(shortNames).forEach((shortName, minimumVersion) -> {
+            String ga = pluginIndex.getGroupAndArtifact(shortName);
+            if (ga == null || declared.contains(ga))
+                return;
+            logger.debug("Adding precomputed dependency {}", ga);
+            if (pluginIndex.getVersion(ga) == null && minimumVersion != null)
+                plugins.add(project.getDependencies().create(ga + ":" + minimumVersion));
+            else
+                plugins.add(project.getDependencies().create(ga));
+        });
+    }
+
+    private String toShortName(Dependency dependency) {
+        // plugin short names are usually identical to the artifact id
+        String ga = dependency.getGroup() + ":" + dependency.getName();
+        return ga.equals(pluginIndex.getGroupAndArtifact(dependency.getName())) ? dependency.getName() : null;
+    }
+
     private void addPluginsByShortName(DependencySet plugins) {
         extension.getPlugins().get().forEach(identifier -> addSinglePluginByShortName(plugins, identifier));
     }
@@ -206,7 +268,7 @@ public class JenkinsDependenciesPlugin implements Plugin<Project> {
         String explicitVersion = null;
         if (elements.length == 1) {
             logger.debug("Single element, assuming short name");
-            ga = pluginMapping.get(elements[0]);
+            ga = pluginIndex.getGroupAndArtifact(elements[0]);
             if (ga == null)
                 throw new GradleException(format("Plugin %s not found in plugin mapping.", elements[0]));
         } else if (elements.length == 3) {
@@ -215,7 +277,7 @@ public class JenkinsDependenciesPlugin implements Plugin<Project> {
             explicitVersion = elements[2];
         } else {
             logger.debug("Two elements, checking for shortName:version");
-            ga = pluginMapping.get(elements[0]);
+            ga = pluginIndex.getGroupAndArtifact(elements[0]);
             if (ga == null) {
                 logger.debug("no shortname found, assuming GA");
                 ga = identifier;
@@ -231,35 +293,22 @@ public class JenkinsDependenciesPlugin implements Plugin<Project> {
             explicitPluginVersions.put(ga, explicitVersion);
     }
 
-    private void loadPluginVersions() {
-        if (pluginVersions != null)
+    private void loadPluginIndex() {
+        if (pluginIndex != null)
             return;
-        try {
-            pluginVersions = loadPropertiesFromFile(
-                    extension.getPluginVersionsFile().getAsFile().get(),
-                    mapToProperties(Map.Entry::getKey, pluginMapping),
-                    Map.Entry::getValue);
-        } catch (IOException e) {
-            logger.warn("Could not load plugin versions, explicit versions needed.");
-            pluginVersions = Collections.emptyMap();
-        }
-    }
-
-    private void loadPluginMappings() {
-        if (pluginMapping != null)
-            return;
-        try {
-            pluginMapping = loadPropertiesFromFile(extension.getPluginMappingFile().getAsFile().get());
-        } catch (IOException e) {
+        File mappingFile = extension.getPluginMappingFile().getAsFile().get();
+        File versionsFile = extension.getPluginVersionsFile().getAsFile().get();
+        if (!mappingFile.isFile())
             logger.warn("Could not load plugin mappings, plugin shortnames not supported.");
-            pluginMapping = Collections.emptyMap();
-        }
+        if (!versionsFile.isFile())
+            logger.warn("Could not load plugin versions, explicit versions needed.");
+        pluginIndex = pluginIndexService.get().getIndex(extension.getPluginIndexFile().getAsFile().get(), mappingFile, versionsFile);
     }
 
     private void resolveSinglePlugin(Dependency dependency) {
         if (dependency.getVersion() != null || !(dependency instanceof ExternalDependency)) return;
         ((ExternalDependency) dependency).version(c ->
-                c.require(pluginVersions.get(dependency.getGroup() + ":" + dependency.getName()))
+                c.require(pluginIndex.getVersion(dependency.getGroup() + ":" + dependency.getName()))
         );
     }
 
@@ -288,26 +337,46 @@ public class JenkinsDependenciesPlugin implements Plugin<Project> {
             d.add(testHarness);
         });
         project.getDependencies().add("testRuntimeOnly", project.files(extension.getPluginDirectory().dir("..")));
-        jenkinsWar = project.getConfigurations().create("jenkinsWar", JenkinsDependenciesPlugin::configureConfiguration);
+        Configuration jenkinsWar = project.getConfigurations().create("jenkinsWar", JenkinsDependenciesPlugin::configureConfiguration);
         jenkinsWar.setTransitive(false);
 
         jenkinsWar.defaultDependencies(d -> {
             Provider<String> coordinates = extension.getJenkinsVersion().map(it -> "org.jenkins-ci.main:jenkins-war:" + it + "@war");
             d.add(project.getDependencies().create(coordinates.get()));
         });
-        project.getTasks().withType(Test.class).all(task -> {
+        project.getTasks().withType(Test.class).configureEach(task -> {
             task.dependsOn("copyJenkinsPlugins");
             task.getInputs().dir(extension.getPluginDirectory());
-            task.getInputs().files(jenkinsWar);
+            task.getJvmArgumentProviders().add(new JenkinsWarArgumentProvider(jenkinsWar));
             task.systemProperty("buildDirectory", project.getLayout().getBuildDirectory().getAsFile().get().getAbsolutePath());
-
-            //noinspection Convert2Lambda,NullableProblems -> Gradle does not allow lambdas for task actions
-            task.doFirst(new Action<>() {
-                @Override
-                public void execute(Task task) {
-                    ((Test) task).systemProperty("jth.jenkins-war.path", jenkinsWar.getSingleFile().getAbsolutePath());
-                }
-            });
+            if (extension.getExplodePlugins().get()) {
+                task.dependsOn("explodeJenkinsPlugins");
+                task.systemProperty(ExplodeJenkinsPlugins.PLUGIN_WORK_DIR_PROPERTY, extension.getExplodedPluginDirectory().get().getAsFile().getAbsolutePath());
+            }
         });
     }
+
+    /**
+     * Passes the location of the resolved jenkins war to the test harness. Resolution is deferred until the
+     * test JVM is started.
+     */
+    public static class JenkinsWarArgumentProvider implements CommandLineArgumentProvider {
+
+        private final FileCollection jenkinsWar;
+
+        public JenkinsWarArgumentProvider(FileCollection jenkinsWar) {
+            this.jenkinsWar = jenkinsWar;
+        }
+
+        @InputFiles
+        @PathSensitive(PathSensitivity.NAME_ONLY)
+        public FileCollection getJenkinsWar() {
+            return jenkinsWar;
+        }
+
+        @Override
+        public Iterable<String> asArguments() {
+            return singletonList("-Djth.jenkins-war.path=" + jenkinsWar.getSingleFile().getAbsolutePath());
+        }
+    }
 }
@@ -0,0 +1,93 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.jenkins;
+
+import com.blackbuild.groovycps.helpers.PluginDependencyGraph;
+import com.blackbuild.groovycps.helpers.PluginIndex;
+import org.gradle.api.GradleException;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Build wide cache of {@link PluginIndex} and {@link PluginDependencyGraph} instances. Each distinct combination of mapping and versions file
+ * is loaded only once per build and shared between all projects applying the {@link JenkinsDependenciesPlugin}.
+ * The indices are immutable, so they can safely be used from parallel project configuration.
+ */
+public abstract class PluginIndexService implements BuildService<BuildServiceParameters.None> {
+
+    public static final String NAME = "jenkinsPluginIndex";
+
+    private final Map<String, PluginIndex> indices = new ConcurrentHashMap<>();
+    private final Map<String, PluginDependencyGraph> dependencyGraphs = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the index for the given files, loading it if necessary. If the content of the properties files
+     * changes during the build, a new index is created.
+     *
+     * @param indexFile the index file to use if the index is not yet loaded
+     * @param mappingFile the plugin mapping file
+     * @param versionsFile the plugin versions file
+     */
+    public PluginIndex getIndex(File indexFile, File mappingFile, File versionsFile) {
+        return indices.compute(key(mappingFile, versionsFile),
+                (k, index) -> index != null && index.isCurrent(mappingFile, versionsFile) ? index : load(indexFile, mappingFile, versionsFile));
+    }
+
+    /**
+     * Returns the precomputed dependency graph stored in the given file, loading it if necessary.
+     */
+    public PluginDependencyGraph getDependencyGraph(File dependenciesFile) {
+        return dependencyGraphs.computeIfAbsent(fileKey(dependenciesFile), k -> loadDependencyGraph(dependenciesFile));
+    }
+
+    private static PluginDependencyGraph loadDependencyGraph(File dependenciesFile) {
+        try {
+            return PluginDependencyGraph.load(dependenciesFile);
+        } catch (IOException e) {
+            throw new GradleException("Could not load plugin dependency graph", e);
+        }
+    }
+
+    private static PluginIndex load(File indexFile, File mappingFile, File versionsFile) {
+        try {
+            return PluginIndex.load(indexFile, mappingFile, versionsFile);
+        } catch (IOException e) {
+            throw new GradleException("Could not create plugin index", e);
+        }
+    }
+
+    // the index itself is validated against the files, like a persisted index in PluginIndex.load
+    private static String key(File mappingFile, File versionsFile) {
+        return mappingFile.getAbsolutePath() + "|" + versionsFile.getAbsolutePath();
+    }
+
+    private static String fileKey(File file) {
+        return file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+    }
+}
@@ -23,14 +23,22 @@
  */
 package com.blackbuild.groovycps.jenkins;
 
-import java.io.BufferedReader;
 import java.io.FilterReader;
 import java.io.IOException;
 import java.io.Reader;
-import java.util.stream.IntStream;
 
+/**
+ * Reader that strips the JSONP wrapper from a Jenkins update center file, i.e. it skips the first line
+ * and ends at the end of the second line. Data is read in large chunks and scanned in place, so no
+ * objects are created while reading.
+ */
 public class StripJsonpReader extends FilterReader {
 
+    static final int BUFFER_SIZE = 16 * 1024;
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
     private boolean startStripped;
     private boolean endFound;
 
@@ -41,18 +49,18 @@ public class StripJsonpReader extends FilterReader {
      * @throws NullPointerException if <code>in</code> is <code>null</code>
      */
     protected StripJsonpReader(Reader in) {
-        super(in instanceof BufferedReader ? in : new BufferedReader(in));
+        super(in);
     }
 
     @Override
     public int read() throws IOException {
         stripStart();
-        if (endFound)
+        if (endFound || !fill())
             return -1;
 
-        int result = super.read();
+        char result = buffer[position++];
 
-        if ((char) result == '\n' || (char) result == '\r') {
+        if (result == '\n' || result == '\r') {
             endFound = true;
             return -1;
         }
@@ -65,29 +73,99 @@ public class StripJsonpReader extends FilterReader {
         stripStart();
         if (endFound)
             return -1;
+        if (len == 0)
+            return 0;
 
-        int count = super.read(cbuf, off, len);
-
-        if (count == -1)
-            return -1;
+        int count;
+        if (position == limit && len >= BUFFER_SIZE) {
+            // nothing buffered and a large target, skip the intermediate copy
+            count = in.read(cbuf, off, len);
+            if (count == -1)
+                return -1;
+        } else {
+            if (!fill())
+                return -1;
+            count = Math.min(len, limit - position);
+            System.arraycopy(buffer, position, cbuf, off, count);
+            position += count;
+        }
 
         int index = indexOfNewLine(cbuf, off, count);
 
         if (index != -1) {
             endFound = true;
-            return index - off;
+            return index == off ? -1 : index - off;
         }
         return count;
     }
 
+    @Override
+    public long skip(long n) throws IOException {
+        if (n < 0L)
+            throw new IllegalArgumentException("skip value is negative");
+        long skipped = 0;
+        while (skipped < n && read() != -1)
+            skipped++;
+        return skipped;
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+        return !endFound && (position < limit || in.ready());
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) throws IOException {
+        throw new IOException("mark() not supported");
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("reset() not supported");
+    }
+
     private void stripStart() throws IOException {
         if (startStripped)
             return;
-        ((BufferedReader) in).readLine();
         startStripped = true;
+        while (fill()) {
+            int index = indexOfNewLine(buffer, position, limit - position);
+            if (index != -1) {
+                position = index + 1;
+                if (buffer[index] == '\r' && fill() && buffer[position] == '\n')
+                    position++;
+                return;
+            }
+            position = limit;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if (position < limit)
+            return true;
+        int count;
+        do {
+            count = in.read(buffer, 0, BUFFER_SIZE);
+        } while (count == 0);
+        if (count == -1)
+            return false;
+        position = 0;
+        limit = count;
+        return true;
     }
 
     public static int indexOfNewLine(char[] arr, int off, int len) {
-        return IntStream.range(off, off + len).filter(i -> arr[i] == '\n' || arr[i] == '\r').findFirst().orElse(-1);
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            char c = arr[i];
+            if (c == '\n' || c == '\r')
+                return i;
+        }
+        return -1;
     }
 }
@@ -0,0 +1,158 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.jenkins;
+
+import org.gradle.api.GradleException;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * Local cache for downloads of the update center. Each url gets its own directory containing the validators
+ * (ETag and Last-Modified) of the last download as well as the files derived from it. Allows refreshing via
+ * conditional requests, so an unchanged update center is neither downloaded nor parsed again.
+ */
+public class UpdateCenterCache {
+
+    private static final String METADATA_FILE = "metadata.properties";
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+
+    private final URL url;
+    private final File directory;
+    private final Properties metadata = new Properties();
+
+    public UpdateCenterCache(File cacheRoot, URL url) {
+        this.url = url;
+        this.directory = new File(cacheRoot, hash(url.toExternalForm()));
+        loadMetadata();
+    }
+
+    /**
+     * Returns the cached file with the given name. The file might not exist.
+     */
+    public File getCachedFile(String name) {
+        return new File(directory, name);
+    }
+
+    /**
+     * Opens a connection to the update center. If cached data is present, the connection is made conditional.
+     * @param cachedFiles names of the files that must be present to be able to use the cached data
+     */
+    public URLConnection openConnection(String... cachedFiles) throws IOException {
+        URLConnection connection = url.openConnection();
+        if (!isComplete(cachedFiles))
+            metadata.clear();
+        String etag = metadata.getProperty(ETAG);
+        if (etag != null)
+            connection.setRequestProperty("If-None-Match", etag);
+        long lastModified = getStoredLastModified();
+        if (lastModified != 0)
+            connection.setIfModifiedSince(lastModified);
+        return connection;
+    }
+
+    /**
+     * Checks whether the response of the given connection indicates that the cached data is still valid.
+     */
+    public boolean isNotModified(URLConnection connection) throws IOException {
+        if (metadata.isEmpty())
+            return false;
+        if (connection instanceof HttpURLConnection)
+            return ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED;
+        long lastModified = connection.getLastModified();
+        return lastModified != 0 && lastModified == getStoredLastModified();
+    }
+
+    /**
+     * Stores the given file in the cache.
+     */
+    public void store(String name, File file) throws IOException {
+        Files.createDirectories(directory.toPath());
+        Files.copy(file.toPath(), getCachedFile(name).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Stores the validators of the given connection. Must be called after all files have been stored.
+     */
+    public void storeMetadata(URLConnection connection) throws IOException {
+        metadata.clear();
+        String etag = connection.getHeaderField("ETag");
+        if (etag != null)
+            metadata.setProperty(ETAG, etag);
+        if (connection.getLastModified() != 0)
+            metadata.setProperty(LAST_MODIFIED, String.valueOf(connection.getLastModified()));
+        Files.createDirectories(directory.toPath());
+        try (Writer writer = new FileWriter(new File(directory, METADATA_FILE), StandardCharsets.UTF_8)) {
+            metadata.store(writer, url.toExternalForm());
+        }
+    }
+
+    private boolean isComplete(String... cachedFiles) {
+        for (String name : cachedFiles)
+            if (!getCachedFile(name).isFile())
+                return false;
+        return true;
+    }
+
+    private long getStoredLastModified() {
+        return Long.parseLong(metadata.getProperty(LAST_MODIFIED, "0"));
+    }
+
+    private void loadMetadata() {
+        File metadataFile = new File(directory, METADATA_FILE);
+        if (!metadataFile.isFile())
+            return;
+        try (Reader reader = new FileReader(metadataFile, StandardCharsets.UTF_8)) {
+            metadata.load(reader);
+        } catch (IOException | IllegalArgumentException e) {
+            metadata.clear();
+        }
+    }
+
+    private static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder result = new StringBuilder();
+            for (byte b : digest)
+                result.append(String.format("%02x", b));
+            return result.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new GradleException("Could not create cache key", e);
+        }
+    }
+}
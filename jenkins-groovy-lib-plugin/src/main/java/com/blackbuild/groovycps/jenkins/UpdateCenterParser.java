@@ -0,0 +1,320 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.jenkins;
+
+import org.gradle.api.GradleException;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Event driven parser for the Jenkins update center json. In contrast to a full tree parser, only the
+ * values needed for the plugin mapping and the dependency graph are materialized, everything else is skipped while reading. Memory usage
+ * is thus independent of the size of the update center.
+ */
+public class UpdateCenterParser {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader in;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private final StringBuilder stringBuilder = new StringBuilder();
+    private int position;
+    private int limit;
+
+    /**
+     * Callback for plugins found in the update center.
+     */
+    public interface Handler {
+        /**
+         * Called for each plugin that declares a gav.
+         * @param shortName the short name (id) of the plugin
+         * @param gav the coordinates of the plugin in the form group:artifact:version
+         */
+        void plugin(String shortName, String gav);
+
+        /**
+         * Called for each dependency of a plugin. Note that dependencies might be reported before the plugin itself.
+         * @param shortName the short name of the depending plugin
+         * @param dependency the short name of the plugin depended upon
+         * @param version the minimum required version
+         * @param optional whether the dependency is optional
+         */
+        default void dependency(String shortName, String dependency, String version, boolean optional) {
+            // ignore by default
+        }
+    }
+
+    public UpdateCenterParser(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Parses the complete update center and calls the handler for each plugin.
+     * @param handler the handler to call
+     */
+    public void parse(Handler handler) throws IOException {
+        expect('{');
+        if (skipIfNext('}'))
+            return;
+        do {
+            String key = readString();
+            expect(':');
+            if ("plugins".equals(key))
+                readPlugins(handler);
+            else
+                skipValue();
+        } while (hasNextMember('}'));
+    }
+
+    private void readPlugins(Handler handler) throws IOException {
+        expect('{');
+        if (skipIfNext('}'))
+            return;
+        do {
+            String shortName = readString();
+            expect(':');
+            readPlugin(shortName, handler);
+        } while (hasNextMember('}'));
+    }
+
+    private void readPlugin(String shortName, Handler handler) throws IOException {
+        expect('{');
+        if (skipIfNext('}'))
+            return;
+        String gav = null;
+        do {
+            String key = readString();
+            expect(':');
+            if ("gav".equals(key) && peek() == '"')
+                gav = readString();
+            else if ("dependencies".equals(key) && peek() == '[')
+                readDependencies(shortName, handler);
+            else
+                skipValue();
+        } while (hasNextMember('}'));
+
+        if (gav != null)
+            handler.plugin(shortName, gav);
+    }
+
+    private void readDependencies(String shortName, Handler handler) throws IOException {
+        expect('[');
+        if (skipIfNext(']'))
+            return;
+        do {
+            readDependency(shortName, handler);
+        } while (hasNextMember(']'));
+    }
+
+    private void readDependency(String shortName, Handler handler) throws IOException {
+        expect('{');
+        if (skipIfNext('}'))
+            return;
+        String name = null;
+        String version = null;
+        boolean optional = false;
+        do {
+            String key = readString();
+            expect(':');
+            if ("name".equals(key) && peek() == '"')
+                name = readString();
+            else if ("version".equals(key) && peek() == '"')
+                version = readString();
+            else if ("optional".equals(key) && peek() == 't')
+                optional = "true".equals(readLiteral());
+            else
+                skipValue();
+        } while (hasNextMember('}'));
+
+        if (name != null)
+            handler.dependency(shortName, name, version, optional);
+    }
+
+    private boolean hasNextMember(char close) throws IOException {
+        int c = nextNonWhitespace();
+        if (c == ',')
+            return true;
+        if (c == close)
+            return false;
+        throw unexpected(c, "',' or '" + close + "'");
+    }
+
+    private void skipValue() throws IOException {
+        int c = peek();
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            skipStructure();
+        } else {
+            skipLiteral();
+        }
+    }
+
+    private void skipStructure() throws IOException {
+        int depth = 0;
+        do {
+            int c = nextNonWhitespace();
+            if (c == '"') {
+                position--;
+                skipString();
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            } else if (c == -1) {
+                throw unexpected(c, "end of structure");
+            }
+        } while (depth > 0);
+    }
+
+    private void skipLiteral() throws IOException {
+        while (fill()) {
+            char c = buffer[position];
+            if (c == ',' || c == '}' || c == ']' || Character.isWhitespace(c))
+                return;
+            position++;
+        }
+    }
+
+    private String readLiteral() throws IOException {
+        stringBuilder.setLength(0);
+        while (fill()) {
+            char c = buffer[position];
+            if (c == ',' || c == '}' || c == ']' || Character.isWhitespace(c))
+                break;
+            stringBuilder.append(c);
+            position++;
+        }
+        return stringBuilder.toString();
+    }
+
+    private void skipString() throws IOException {
+        expect('"');
+        while (true) {
+            if (!fill())
+                throw unexpected(-1, "end of string");
+            char c = buffer[position++];
+            if (c == '"')
+                return;
+            if (c == '\\') {
+                if (!fill())
+                    throw unexpected(-1, "escape sequence");
+                position++;
+            }
+        }
+    }
+
+    private String readString() throws IOException {
+        expect('"');
+        stringBuilder.setLength(0);
+        while (true) {
+            if (!fill())
+                throw unexpected(-1, "end of string");
+            int start = position;
+            while (position < limit && buffer[position] != '"' && buffer[position] != '\\')
+                position++;
+            stringBuilder.append(buffer, start, position - start);
+            if (position == limit)
+                continue;
+            if (buffer[position++] == '"')
+                return stringBuilder.toString();
+            readEscape();
+        }
+    }
+
+    private void readEscape() throws IOException {
+        int c = next();
+        switch (c) {
+            case 'b': stringBuilder.append('\b'); break;
+            case 'f': stringBuilder.append('\f'); break;
+            case 'n': stringBuilder.append('\n'); break;
+            case 'r': stringBuilder.append('\r'); break;
+            case 't': stringBuilder.append('\t'); break;
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(next(), 16);
+                    if (digit == -1)
+                        throw new GradleException("Illegal unicode escape in update center json");
+                    value = (value << 4) + digit;
+                }
+                stringBuilder.append((char) value);
+                break;
+            case -1:
+                throw unexpected(c, "escape sequence");
+            default:
+                stringBuilder.append((char) c);
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        int c = nextNonWhitespace();
+        if (c != expected)
+            throw unexpected(c, "'" + expected + "'");
+    }
+
+    private boolean skipIfNext(char expected) throws IOException {
+        if (peek() != expected)
+            return false;
+        position++;
+        return true;
+    }
+
+    private int peek() throws IOException {
+        int c = nextNonWhitespace();
+        if (c != -1)
+            position--;
+        return c;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (fill()) {
+            char c = buffer[position++];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+                return c;
+        }
+        return -1;
+    }
+
+    private int next() throws IOException {
+        return fill() ? buffer[position++] : -1;
+    }
+
+    private boolean fill() throws IOException {
+        if (position < limit)
+            return true;
+        int count = in.read(buffer, 0, BUFFER_SIZE);
+        if (count <= 0)
+            return false;
+        position = 0;
+        limit = count;
+        return true;
+    }
+
+    private static GradleException unexpected(int c, String expected) {
+        String found = c == -1 ? "end of input" : "'" + (char) c + "'";
+        return new GradleException("Malformed update center json: expected " + expected + " but found " + found);
+    }
+}
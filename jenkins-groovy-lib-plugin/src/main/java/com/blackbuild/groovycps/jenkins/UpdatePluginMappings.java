@@ -23,51 +23,117 @@
  */
 package com.blackbuild.groovycps.jenkins;
 
-import groovy.json.JsonSlurper;
+import com.blackbuild.groovycps.helpers.PluginDependencyGraph;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.GradleException;
+import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
 import org.gradle.internal.util.PropertiesUtils;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 
 public abstract class UpdatePluginMappings extends DefaultTask {
 
+    static final String CACHED_MAPPING = "mapping.properties";
+    static final String CACHED_DEPENDENCIES = "dependencies.properties";
+
+    protected UpdatePluginMappings() {
+        // the update center might have changed, the conditional request makes this cheap
+        getOutputs().upToDateWhen(t -> false);
+    }
+
     @OutputFile
     protected abstract RegularFileProperty getPluginMappingFile();
 
+    @OutputFile
+    protected abstract RegularFileProperty getPluginDependenciesFile();
+
     @Input
     protected abstract Property<String> getUpdateCenterUrl();
 
-    @SuppressWarnings("unchecked")
+    @Internal
+    protected abstract DirectoryProperty getCacheDirectory();
+
     @TaskAction
     public void readPluginMapping() throws IOException {
         URL url;
         try {
-            url = getProject().uri(getUpdateCenterUrl().get()).toURL();
-        } catch (MalformedURLException e) {
+            url = new URI(getUpdateCenterUrl().get()).toURL();
+        } catch (URISyntaxException | MalformedURLException e) {
             throw new GradleException("Could not create url to update center", e);
         }
+        File mappingFile = getPluginMappingFile().getAsFile().get();
+        File dependenciesFile = getPluginDependenciesFile().getAsFile().get();
+        UpdateCenterCache cache = new UpdateCenterCache(getCacheDirectory().getAsFile().get(), url);
+        URLConnection connection = cache.openConnection(CACHED_MAPPING, CACHED_DEPENDENCIES);
+
+        if (cache.isNotModified(connection)) {
+            getLogger().info("Update center {} is unchanged, using cached mapping", url);
+            boolean restored = restoreFromCache(cache, CACHED_MAPPING, mappingFile);
+            restored |= restoreFromCache(cache, CACHED_DEPENDENCIES, dependenciesFile);
+            setDidWork(restored);
+            return;
+        }
+
         Properties pluginMap = new Properties();
-        try (InputStream in = url.openStream()) {
+        Map<String, Map<String, String>> dependencies = new TreeMap<>();
+        try (InputStream in = connection.getInputStream()) {
             StripJsonpReader jsonpReader = new StripJsonpReader(new InputStreamReader(in));
-            Map<String, Object> parse = (Map<String, Object>) new JsonSlurper().parse(jsonpReader);
-            Map<String, Map<String, Object>> plugins = (Map<String, Map<String, Object>>) parse.get("plugins");
-            plugins.forEach((k, v) -> {
-                String[] gav = v.get("gav").toString().split(":");
-                pluginMap.setProperty(k, gav[0] + ":" + gav[1]);
+            new UpdateCenterParser(jsonpReader).parse(new UpdateCenterParser.Handler() {
+                @Override
+                public void plugin(String shortName, String gav) {
+                    String[] elements = gav.split(":");
+                    pluginMap.setProperty(shortName, elements[0] + ":" + elements[1]);
+                    dependencies.computeIfAbsent(shortName, k -> new LinkedHashMap<>());
+                }
+
+                @Override
+                public void dependency(String shortName, String dependency, String version, boolean optional) {
+                    if (!optional)
+                        dependencies.computeIfAbsent(shortName, k -> new LinkedHashMap<>()).put(dependency, version);
+                }
             });
         }
-        PropertiesUtils.store(pluginMap, getPluginMappingFile().getAsFile().get());
+        Properties dependencyGraph = new Properties();
+        dependencies.forEach((shortName, required) -> {
+            if (pluginMap.containsKey(shortName))
+                dependencyGraph.setProperty(shortName, PluginDependencyGraph.format(required));
+        });
+
+        PropertiesUtils.store(pluginMap, mappingFile);
+        PropertiesUtils.store(dependencyGraph, dependenciesFile);
+        cache.store(CACHED_MAPPING, mappingFile);
+        cache.store(CACHED_DEPENDENCIES, dependenciesFile);
+        cache.storeMetadata(connection);
+    }
+
+    private static boolean restoreFromCache(UpdateCenterCache cache, String name, File target) throws IOException {
+        Path cached = cache.getCachedFile(name).toPath();
+        // the target might have been written for a different update center
+        if (target.isFile() && Arrays.equals(Files.readAllBytes(cached), Files.readAllBytes(target.toPath())))
+            return false;
+        Files.copy(cached, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return true;
     }
 }
@@ -37,6 +37,8 @@ import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.List;
 import java.util.Map;
@@ -55,8 +57,8 @@ public abstract class UpdatePluginVersions extends DefaultTask {
     public void readPluginMapping() throws IOException {
         URL url;
         try {
-            url = getProject().uri(getInstalledPluginsUrl().get()).toURL();
-        } catch (MalformedURLException e) {
+            url = new URI(getInstalledPluginsUrl().get()).toURL();
+        } catch (URISyntaxException | MalformedURLException e) {
             throw new GradleException("Could not create url to installed.json", e);
         }
         Properties versions = new Properties();
@@ -0,0 +1,264 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.plugin;
+
+import org.gradle.api.GradleException;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the public API of a compiled class. Method bodies are never read, private and synthetic members
+ * as well as members generated by Groovy and the CPS transformer are dropped, so the result only changes
+ * when the signatures visible to other classes change.
+ */
+public class ClassAbi {
+
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_SYNTHETIC = 0x1000;
+    private static final int ACC_BRIDGE = 0x0040;
+
+    private static final Pattern GENERATED_CLASS = Pattern.compile(".*\\$_.*");
+    private static final Pattern GENERATED_MEMBER = Pattern.compile("(<clinit>|___cps.*|\\$.*|__\\$.*|this\\$.*|super\\$.*|__timeStamp.*|timeStamp)");
+
+    private ClassAbi() {}
+
+    /**
+     * Returns the normalized ABI lines of the given class file or an empty list if the class itself
+     * is not part of the API (e.g. generated closure classes).
+     */
+    public static List<String> read(InputStream classFile) throws IOException {
+        DataInputStream in = new DataInputStream(classFile);
+        if (in.readInt() != 0xCAFEBABE)
+            throw new GradleException("Not a class file");
+        in.readUnsignedShort(); // minor
+        in.readUnsignedShort(); // major
+
+        Object[] constants = readConstantPool(in);
+
+        int access = in.readUnsignedShort();
+        String name = className(constants, in.readUnsignedShort());
+        int superIndex = in.readUnsignedShort();
+        String superName = superIndex == 0 ? "" : className(constants, superIndex);
+
+        if ((access & ACC_SYNTHETIC) != 0 || GENERATED_CLASS.matcher(name).matches())
+            return Collections.emptyList();
+
+        List<String> interfaces = new ArrayList<>();
+        int interfaceCount = in.readUnsignedShort();
+        for (int i = 0; i < interfaceCount; i++)
+            interfaces.add(className(constants, in.readUnsignedShort()));
+        Collections.sort(interfaces);
+
+        List<String> members = new ArrayList<>();
+        readMembers(in, constants, "field", members);
+        readMembers(in, constants, "method", members);
+        Collections.sort(members);
+
+        Attributes classAttributes = readAttributes(in, constants);
+
+        List<String> result = new ArrayList<>(members.size() + 1);
+        result.add(String.format("class %s %d extends %s implements %s%s", name, access & ~ACC_SYNTHETIC, superName, interfaces, classAttributes));
+        for (String member : members)
+            result.add(name + " " + member);
+        return result;
+    }
+
+    private static void readMembers(DataInputStream in, Object[] constants, String kind, List<String> members) throws IOException {
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            int access = in.readUnsignedShort();
+            String name = (String) constants[in.readUnsignedShort()];
+            String descriptor = (String) constants[in.readUnsignedShort()];
+            Attributes attributes = readAttributes(in, constants);
+            if ((access & (ACC_PRIVATE | ACC_SYNTHETIC)) != 0)
+                continue;
+            if (kind.equals("method") && (access & ACC_BRIDGE) != 0)
+                continue;
+            if (GENERATED_MEMBER.matcher(name).matches())
+                continue;
+            members.add(String.format("%s %d %s %s%s", kind, access, name, descriptor, attributes));
+        }
+    }
+
+    private static Attributes readAttributes(DataInputStream in, Object[] constants) throws IOException {
+        Attributes result = new Attributes();
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            String name = (String) constants[in.readUnsignedShort()];
+            int length = in.readInt();
+            switch (name) {
+                case "Signature":
+                    result.signature = (String) constants[in.readUnsignedShort()];
+                    break;
+                case "ConstantValue":
+                    result.constant = String.valueOf(constants[in.readUnsignedShort()]);
+                    break;
+                case "Exceptions":
+                    int exceptionCount = in.readUnsignedShort();
+                    for (int e = 0; e < exceptionCount; e++)
+                        result.exceptions.add(className(constants, in.readUnsignedShort()));
+                    Collections.sort(result.exceptions);
+                    break;
+                case "RuntimeVisibleAnnotations":
+                    int annotationCount = in.readUnsignedShort();
+                    for (int a = 0; a < annotationCount; a++)
+                        result.annotations.add(readAnnotation(in, constants));
+                    Collections.sort(result.annotations);
+                    break;
+                default:
+                    skip(in, length);
+            }
+        }
+        return result;
+    }
+
+    // only the annotation type is relevant, values are skipped
+    private static String readAnnotation(DataInputStream in, Object[] constants) throws IOException {
+        String type = (String) constants[in.readUnsignedShort()];
+        int pairs = in.readUnsignedShort();
+        for (int i = 0; i < pairs; i++) {
+            in.readUnsignedShort();
+            skipElementValue(in, constants);
+        }
+        return type;
+    }
+
+    private static void skipElementValue(DataInputStream in, Object[] constants) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case 'e':
+                in.readUnsignedShort();
+                in.readUnsignedShort();
+                break;
+            case '@':
+                readAnnotation(in, constants);
+                break;
+            case '[':
+                int count = in.readUnsignedShort();
+                for (int i = 0; i < count; i++)
+                    skipElementValue(in, constants);
+                break;
+            default:
+                in.readUnsignedShort();
+        }
+    }
+
+    private static void skip(DataInputStream in, int length) throws IOException {
+        while (length > 0) {
+            int skipped = in.skipBytes(length);
+            if (skipped <= 0)
+                throw new GradleException("Unexpected end of class file");
+            length -= skipped;
+        }
+    }
+
+    private static Object[] readConstantPool(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        Object[] constants = new Object[count];
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    constants[i] = in.readUTF();
+                    break;
+                case 3: // Integer
+                    constants[i] = in.readInt();
+                    break;
+                case 4: // Float
+                    constants[i] = in.readFloat();
+                    break;
+                case 5: // Long
+                    constants[i++] = in.readLong();
+                    break;
+                case 6: // Double
+                    constants[i++] = in.readDouble();
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    constants[i] = new Ref(in.readUnsignedShort());
+                    break;
+                case 15: // MethodHandle
+                    in.readUnsignedByte();
+                    in.readUnsignedShort();
+                    break;
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    in.readInt();
+                    break;
+                default:
+                    throw new GradleException("Unknown constant pool tag " + tag);
+            }
+        }
+        for (int i = 1; i < count; i++)
+            if (constants[i] instanceof Ref)
+                constants[i] = constants[((Ref) constants[i]).index];
+        return constants;
+    }
+
+    private static String className(Object[] constants, int index) {
+        return (String) constants[index];
+    }
+
+    private static class Ref {
+        private final int index;
+
+        private Ref(int index) {
+            this.index = index;
+        }
+    }
+
+    private static class Attributes {
+        private String signature;
+        private String constant;
+        private final List<String> exceptions = new ArrayList<>();
+        private final List<String> annotations = new ArrayList<>();
+
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder();
+            if (signature != null)
+                result.append(" signature=").append(signature);
+            if (constant != null)
+                result.append(" value=").append(constant);
+            if (!exceptions.isEmpty())
+                result.append(" throws=").append(exceptions);
+            if (!annotations.isEmpty())
+                result.append(" annotations=").append(annotations);
+            return result.toString();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.plugin;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.FileVisitDetails;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.IgnoreEmptyDirectories;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes the normalized public API of the compiled classes (see {@link ClassAbi}). Since the CPS transformer
+ * rewrites method bodies and adds synthetic members, the class files change on every edit, while this
+ * snapshot only changes if the API changes.
+ */
+@CacheableTask
+public abstract class CpsAbiSnapshot extends DefaultTask {
+
+    @InputFiles
+    @IgnoreEmptyDirectories
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract ConfigurableFileCollection getClassesDirs();
+
+    @OutputFile
+    public abstract RegularFileProperty getAbiFile();
+
+    @TaskAction
+    public void snapshot() throws IOException {
+        Map<String, File> classFiles = new TreeMap<>();
+        getClassesDirs().getAsFileTree().visit(details -> {
+            if (!details.isDirectory() && details.getName().endsWith(".class"))
+                classFiles.put(relativePath(details), details.getFile());
+        });
+
+        File abiFile = getAbiFile().get().getAsFile();
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(abiFile.toPath(), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, File> classFile : classFiles.entrySet()) {
+                try (InputStream in = Files.newInputStream(classFile.getValue().toPath())) {
+                    for (String line : ClassAbi.read(in))
+                        out.println(line);
+                } catch (GradleException e) {
+                    throw new GradleException("Could not read " + classFile.getKey() + ": " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private static String relativePath(FileVisitDetails details) {
+        return details.getRelativePath().getPathString();
+    }
+}
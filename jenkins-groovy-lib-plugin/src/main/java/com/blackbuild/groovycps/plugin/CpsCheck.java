@@ -0,0 +1,394 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.plugin;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileType;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.IgnoreEmptyDirectories;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.SkipWhenEmpty;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.ChangeType;
+import org.gradle.work.FileChange;
+import org.gradle.work.Incremental;
+import org.gradle.work.InputChanges;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+
+import javax.inject.Inject;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs the AST checker on the library sources without compiling them and writes the findings as
+ * SARIF report. Classes of the library are resolved from source, so the check does not depend on the
+ * compilation. The sources are distributed over at most {@link #getMaxWorkers()} workers of the Gradle worker
+ * pool, each of which processes the whole library once. Only changed sources are checked again unless the
+ * classpath changed or the declarations (not the method bodies) of a changed source changed, which can affect
+ * other sources, so all sources are checked again.
+ * <p>
+ * Findings and a hash of the declarations are kept per source file in {@link #getResultsDir()}, the report always
+ * covers all sources.
+ */
+@CacheableTask
+public abstract class CpsCheck extends DefaultTask {
+
+    static final String RUNNER_CLASS = "com.blackbuild.groovy.cps.astchecker.CpsCheckRunner";
+    static final String RESULT_SUFFIX = ".findings";
+    static final String DECLARATIONS_SUFFIX = ".declarations";
+
+    @Incremental
+    @SkipWhenEmpty
+    @IgnoreEmptyDirectories
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract ConfigurableFileCollection getSource();
+
+    /**
+     * Classpath to resolve classes not contained in the sources, i.e. the dependencies of the library.
+     */
+    @Classpath
+    public abstract ConfigurableFileCollection getClasspath();
+
+    /**
+     * Classpath containing the AST checker, Groovy and groovy-cps.
+     */
+    @Classpath
+    public abstract ConfigurableFileCollection getCheckerClasspath();
+
+    @Input
+    public abstract ListProperty<String> getStarImports();
+
+    @Input
+    public abstract ListProperty<String> getImports();
+
+    @Input
+    @Optional
+    public abstract Property<String> getScriptBaseClass();
+
+    @Input
+    public abstract Property<Boolean> getIgnoreFailures();
+
+    /**
+     * The minimum number of sources to start a worker for. Since every worker processes the whole library,
+     * small checks are not split over several workers.
+     */
+    @Internal
+    public abstract Property<Integer> getChunkSize();
+
+    /**
+     * The maximum number of workers to distribute the sources over, defaults to the max worker count of the build.
+     */
+    @Internal
+    public abstract Property<Integer> getMaxWorkers();
+
+    /**
+     * The directory the source paths in the report are relative to.
+     */
+    @Internal
+    public abstract DirectoryProperty getBaseDirectory();
+
+    @OutputDirectory
+    public abstract DirectoryProperty getResultsDir();
+
+    @OutputFile
+    public abstract RegularFileProperty getReportFile();
+
+    @Internal
+    public abstract Property<CpsCheckService> getCheckService();
+
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
+
+    @TaskAction
+    public void check(InputChanges inputChanges) throws IOException {
+        File resultsDir = getResultsDir().get().getAsFile();
+        if (!inputChanges.isIncremental())
+            deleteResults(resultsDir.toPath());
+
+        Map<File, File> resultFiles = new LinkedHashMap<>();
+        getSource().getAsFileTree().visit(details -> {
+            if (!details.isDirectory() && details.getName().endsWith(".groovy"))
+                resultFiles.put(details.getFile(), new File(resultsDir, details.getRelativePath().getPathString() + RESULT_SUFFIX));
+        });
+        List<File> allSources = resultFiles.keySet().stream().sorted().collect(Collectors.toList());
+
+        List<File> sources = new ArrayList<>();
+        Map<File, String> previousDeclarations = new HashMap<>();
+        boolean declarationsChanged = false;
+        for (FileChange change : inputChanges.getFileChanges(getSource())) {
+            if (change.getFileType() == FileType.DIRECTORY || !change.getFile().getName().endsWith(".groovy"))
+                continue;
+            if (change.getChangeType() == ChangeType.REMOVED) {
+                File result = new File(resultsDir, change.getNormalizedPath() + RESULT_SUFFIX);
+                Files.deleteIfExists(result.toPath());
+                Files.deleteIfExists(declarationsFile(result).toPath());
+                declarationsChanged = true;
+            } else {
+                if (change.getChangeType() == ChangeType.ADDED)
+                    declarationsChanged = true;
+                else
+                    previousDeclarations.put(change.getFile(), readDeclarations(resultFiles.get(change.getFile())));
+                sources.add(change.getFile());
+            }
+        }
+
+        checkSources(allSources, sources, resultFiles);
+
+        if (inputChanges.isIncremental()) {
+            for (Map.Entry<File, String> previous : previousDeclarations.entrySet())
+                if (!Objects.equals(previous.getValue(), readDeclarations(resultFiles.get(previous.getKey()))))
+                    declarationsChanged = true;
+            if (declarationsChanged) {
+                getLogger().info("Declarations of the library changed, checking all sources");
+                List<File> others = new ArrayList<>(allSources);
+                others.removeAll(sources);
+                checkSources(allSources, others, resultFiles);
+            }
+        }
+
+        int findings = writeReport(resultsDir.toPath(), getReportFile().get().getAsFile());
+        if (findings > 0 && !getIgnoreFailures().get())
+            throw new GradleException(String.format("Found %d CPS violation(s), see %s", findings, getReportFile().get().getAsFile().toURI()));
+    }
+
+    private void checkSources(List<File> allSources, List<File> sources, Map<File, File> resultFiles) {
+        if (sources.isEmpty())
+            return;
+        int chunkSize = Math.max(1, getChunkSize().get());
+        int workers = Math.min(Math.max(1, getMaxWorkers().get()), (sources.size() + chunkSize - 1) / chunkSize);
+        getLogger().info("Checking {} source(s) in {} worker(s)", sources.size(), workers);
+
+        WorkQueue queue = getWorkerExecutor().noIsolation();
+        for (int worker = 0; worker < workers; worker++) {
+            List<File> chunk = sources.subList(sources.size() * worker / workers, sources.size() * (worker + 1) / workers);
+            List<File> chunkResults = chunk.stream().map(resultFiles::get).collect(Collectors.toList());
+            queue.submit(CheckSources.class, p -> {
+                p.getAllSources().set(allSources);
+                p.getSources().set(chunk);
+                p.getResultFiles().set(chunkResults);
+                p.getBaseDirectory().set(getBaseDirectory());
+                p.getClasspath().from(getClasspath());
+                p.getCheckerClasspath().from(getCheckerClasspath());
+                p.getStarImports().set(getStarImports());
+                p.getImports().set(getImports());
+                p.getScriptBaseClass().set(getScriptBaseClass());
+                p.getCheckService().set(getCheckService());
+            });
+        }
+        queue.await();
+    }
+
+    static File declarationsFile(File resultFile) {
+        String name = resultFile.getName();
+        return new File(resultFile.getParentFile(), name.substring(0, name.length() - RESULT_SUFFIX.length()) + DECLARATIONS_SUFFIX);
+    }
+
+    private static String readDeclarations(File resultFile) throws IOException {
+        File declarationsFile = declarationsFile(resultFile);
+        return declarationsFile.isFile() ? new String(Files.readAllBytes(declarationsFile.toPath()), StandardCharsets.UTF_8) : null;
+    }
+
+    private static void deleteResults(Path resultsDir) throws IOException {
+        if (!Files.isDirectory(resultsDir))
+            return;
+        try (Stream<Path> files = Files.walk(resultsDir)) {
+            for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList()))
+                Files.delete(file);
+        }
+    }
+
+    private int writeReport(Path resultsDir, File reportFile) throws IOException {
+        List<Path> resultFiles;
+        try (Stream<Path> files = Files.walk(resultsDir)) {
+            resultFiles = files.filter(f -> f.toString().endsWith(RESULT_SUFFIX)).sorted().collect(Collectors.toList());
+        }
+
+        int count = 0;
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(reportFile.toPath(), StandardCharsets.UTF_8))) {
+            out.print("{\"version\":\"2.1.0\",\"$schema\":\"https://json.schemastore.org/sarif-2.1.0.json\",\"runs\":[{");
+            out.print("\"tool\":{\"driver\":{\"name\":\"cps-check\",\"informationUri\":\"https://github.com/blackbuild/jenkins-groovy-lib-utils\",\"rules\":[{\"id\":\"cps\"}]}},");
+            out.println("\"results\":[");
+            for (Path resultFile : resultFiles) {
+                try (BufferedReader in = Files.newBufferedReader(resultFile, StandardCharsets.UTF_8)) {
+                    String uri = in.readLine();
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        String[] finding = line.split("\t", 3);
+                        int startLine = Integer.parseInt(finding[0]);
+                        int startColumn = Integer.parseInt(finding[1]);
+                        getLogger().error("{}:{}:{}: {}", uri, startLine, startColumn, finding[2]);
+                        if (count++ > 0)
+                            out.println(",");
+                        out.print("{\"ruleId\":\"cps\",\"level\":\"error\",\"message\":{\"text\":" + json(finding[2]) + "},");
+                        out.print("\"locations\":[{\"physicalLocation\":{\"artifactLocation\":{\"uri\":" + json(uri) + "}");
+                        if (startLine > 0)
+                            out.print(",\"region\":{\"startLine\":" + startLine + (startColumn > 0 ? ",\"startColumn\":" + startColumn : "") + "}");
+                        out.print("}}]}");
+                    }
+                }
+            }
+            out.println();
+            out.println("]}]}");
+        }
+        return count;
+    }
+
+    private static String json(String value) {
+        StringBuilder result = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"': result.append("\\\""); break;
+                case '\\': result.append("\\\\"); break;
+                case '\n': result.append("\\n"); break;
+                case '\r': result.append("\\r"); break;
+                case '\t': result.append("\\t"); break;
+                default:
+                    if (c < 0x20)
+                        result.append(String.format("\\u%04x", (int) c));
+                    else
+                        result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+
+    /**
+     * Checks a chunk of sources and writes one result file per source. The first line of a result file
+     * is the source path relative to the base directory, followed by one line per finding: line, column
+     * and message separated by tabs. The hash of the declarations of the source is written next to it.
+     */
+    public abstract static class CheckSources implements WorkAction<CheckSources.Parameters> {
+
+        private static final Logger LOGGER = Logging.getLogger(CheckSources.class);
+
+        public interface Parameters extends WorkParameters {
+            ListProperty<File> getAllSources();
+            ListProperty<File> getSources();
+            ListProperty<File> getResultFiles();
+            DirectoryProperty getBaseDirectory();
+            ConfigurableFileCollection getClasspath();
+            ConfigurableFileCollection getCheckerClasspath();
+            ListProperty<String> getStarImports();
+            ListProperty<String> getImports();
+            Property<String> getScriptBaseClass();
+            Property<CpsCheckService> getCheckService();
+        }
+
+        @Override
+        public void execute() {
+            List<File> sources = getParameters().getSources().get();
+            List<File> resultFiles = getParameters().getResultFiles().get();
+            Path baseDirectory = getParameters().getBaseDirectory().get().getAsFile().toPath();
+
+            Map<String, String> declarations = new HashMap<>();
+            Map<String, List<Map<String, Object>>> findingsBySource = new HashMap<>();
+            for (Map<String, Object> finding : runChecker(sources, declarations)) {
+                Object file = finding.get("file");
+                // errors not bound to a source are reported for the first file of the chunk
+                String key = file != null ? (String) file : sources.get(0).getAbsolutePath();
+                findingsBySource.computeIfAbsent(key, k -> new ArrayList<>()).add(finding);
+            }
+
+            try {
+                for (int i = 0; i < sources.size(); i++) {
+                    File source = sources.get(i);
+                    File resultFile = resultFiles.get(i);
+                    Files.createDirectories(resultFile.getParentFile().toPath());
+                    try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(resultFile.toPath(), StandardCharsets.UTF_8))) {
+                        out.println(baseDirectory.relativize(source.toPath()).toString().replace(File.separatorChar, '/'));
+                        for (Map<String, Object> finding : findingsBySource.getOrDefault(source.getAbsolutePath(), new ArrayList<>()))
+                            out.println(finding.get("line") + "\t" + finding.get("column") + "\t" + String.valueOf(finding.get("message")).replaceAll("\\s+", " "));
+                    }
+                    Files.write(declarationsFile(resultFile).toPath(),
+                            String.valueOf(declarations.get(source.getAbsolutePath())).getBytes(StandardCharsets.UTF_8));
+                }
+            } catch (IOException e) {
+                throw new GradleException("Could not write CPS check results", e);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<Map<String, Object>> runChecker(List<File> sources, Map<String, String> declarations) {
+            List<File> checkerClasspath = new ArrayList<>(getParameters().getCheckerClasspath().getFiles());
+            ClassLoader loader = getParameters().getCheckService().get().getClassLoader(checkerClasspath);
+            try {
+                Method check = loader.loadClass(RUNNER_CLASS).getMethod("check", List.class, List.class, List.class, List.class, List.class, String.class, Map.class, Map.class);
+                Map<String, Object> statistics = new HashMap<>();
+                List<Map<String, Object>> result = (List<Map<String, Object>>) check.invoke(null,
+                        getParameters().getAllSources().get(),
+                        sources,
+                        new ArrayList<>(getParameters().getClasspath().getFiles()),
+                        getParameters().getStarImports().get(),
+                        getParameters().getImports().get(),
+                        getParameters().getScriptBaseClass().getOrNull(),
+                        statistics,
+                        declarations);
+                if (!statistics.isEmpty())
+                    LOGGER.info("CPS method classification for {} source(s): {} methods, {} hits, {} ms", sources.size(),
+                            statistics.get("classifiedMethods"), statistics.get("classificationHits"),
+                            ((Number) statistics.get("classificationNanos")).longValue() / 1_000_000);
+                return result;
+            } catch (InvocationTargetException e) {
+                throw new GradleException("AST checker failed: " + e.getCause().getMessage(), e.getCause());
+            } catch (ReflectiveOperationException e) {
+                throw new GradleException("Could not run AST checker, " + RUNNER_CLASS + " is not on the checker classpath", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.plugin;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the classloaders running the AST checker for {@link CpsCheck}. The checker needs its own Groovy
+ * version, so it is loaded isolated from Gradle, once per build and distinct classpath, and shared between
+ * all workers.
+ */
+public abstract class CpsCheckService implements BuildService<BuildServiceParameters.None>, AutoCloseable {
+
+    public static final String NAME = "cpsCheck";
+
+    private final Map<List<File>, URLClassLoader> classLoaders = new ConcurrentHashMap<>();
+
+    public ClassLoader getClassLoader(List<File> classpath) {
+        return classLoaders.computeIfAbsent(classpath, CpsCheckService::createClassLoader);
+    }
+
+    private static URLClassLoader createClassLoader(List<File> classpath) {
+        URL[] urls = new URL[classpath.size()];
+        try {
+            for (int i = 0; i < urls.length; i++)
+                urls[i] = classpath.get(i).toURI().toURL();
+        } catch (MalformedURLException e) {
+            throw new GradleException("Invalid checker classpath", e);
+        }
+        return new URLClassLoader(urls, ClassLoader.getPlatformClassLoader());
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (URLClassLoader loader : classLoaders.values())
+            loader.close();
+        classLoaders.clear();
+    }
+}
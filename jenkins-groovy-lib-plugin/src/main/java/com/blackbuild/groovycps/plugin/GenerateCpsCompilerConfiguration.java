@@ -0,0 +1,149 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.plugin;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Generates the Groovy compiler configuration script for CPS compilation from the options of
+ * {@link GroovyCpsPluginExtension}. An additional, user provided configuration script is embedded
+ * and evaluated after the generated configuration.
+ */
+@CacheableTask
+public abstract class GenerateCpsCompilerConfiguration extends DefaultTask {
+
+    static final String CUSTOMIZERS = "org.codehaus.groovy.control.customizers.";
+
+    @Input
+    public abstract ListProperty<String> getStarImports();
+
+    @Input
+    public abstract ListProperty<String> getImports();
+
+    @Input
+    public abstract Property<Boolean> getAstChecker();
+
+    @Input
+    public abstract Property<Boolean> getMethodInstrumentation();
+
+    @Input
+    @Optional
+    public abstract Property<String> getScriptBaseClass();
+
+    /**
+     * The directory for the call graph summaries, relative to the compiler's target directory. Call graph
+     * analysis is only active if set.
+     */
+    @Input
+    @Optional
+    public abstract Property<String> getCallGraphSummaries();
+
+    /**
+     * A configuration script that is evaluated after the generated configuration.
+     */
+    @InputFile
+    @Optional
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getAdditionalScript();
+
+    @OutputFile
+    public abstract RegularFileProperty getScriptFile();
+
+    @TaskAction
+    public void generate() throws IOException {
+        StringBuilder script = new StringBuilder("configuration");
+
+        List<String> starImports = getStarImports().get();
+        List<String> imports = getImports().get();
+        if (!starImports.isEmpty() || !imports.isEmpty()) {
+            script.append("\n        .addCompilationCustomizers(new " + CUSTOMIZERS + "ImportCustomizer()");
+            if (!starImports.isEmpty())
+                script.append("\n        .addStarImports(").append(toArguments(starImports)).append(")");
+            if (!imports.isEmpty())
+                script.append("\n        .addImports(").append(toArguments(imports)).append(")");
+            script.append(")");
+        }
+
+        if (getMethodInstrumentation().get())
+            script.append("\n        .addCompilationCustomizers(new com.blackbuild.groovy.cps.astchecker.CpsInstrumentation()) // count and time method calls");
+
+        script.append("\n        .addCompilationCustomizers(new com.cloudbees.groovy.cps.CpsTransformer()) // use CPS Transformation");
+
+        if (getAstChecker().get())
+            script.append("\n        .addCompilationCustomizers(new " + CUSTOMIZERS + "ASTTransformationCustomizer(groovy.transform.TypeChecked, \"com.blackbuild.groovy.cps.astchecker.AstChecker\")) // check for CPS violations");
+
+        if (getCallGraphSummaries().isPresent())
+            script.append("\n        .addCompilationCustomizers(com.blackbuild.groovy.cps.astchecker.CpsCallGraph.customizers(").append(quote(getCallGraphSummaries().get())).append(")) // check CPS violations across classes");
+
+        if (getScriptBaseClass().isPresent())
+            script.append("\n        .setScriptBaseClass(").append(quote(getScriptBaseClass().get())).append(") // for Jenkinsfiles");
+
+        script.append("\n");
+
+        if (getAdditionalScript().isPresent())
+            appendAdditionalScript(script, getAdditionalScript().get().getAsFile());
+
+        Files.write(getScriptFile().get().getAsFile().toPath(), script.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // embedded instead of referenced, so the generated script does not contain absolute paths
+    private static void appendAdditionalScript(StringBuilder script, File additionalScript) throws IOException {
+        if (!additionalScript.isFile())
+            throw new GradleException("Configuration script " + additionalScript + " does not exist.");
+        String content = new String(Files.readAllBytes(additionalScript.toPath()), StandardCharsets.UTF_8);
+
+        script.append("\nnew GroovyShell(getClass().classLoader, new Binding(configuration: configuration), new org.codehaus.groovy.control.CompilerConfiguration()")
+                .append("\n        .addCompilationCustomizers(new " + CUSTOMIZERS + "ImportCustomizer().addStaticImport(\"" + CUSTOMIZERS + "builder.CompilerCustomizationBuilder\", \"withConfig\")))")
+                .append("\n        .evaluate('''")
+                .append(content.replace("\\", "\\\\").replace("'", "\\'"))
+                .append("''', ").append(quote(additionalScript.getName())).append(")\n");
+    }
+
+    private static String toArguments(List<String> values) {
+        return values.stream().map(GenerateCpsCompilerConfiguration::quote).collect(Collectors.joining(", "));
+    }
+
+    private static String quote(String value) {
+        return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("$", "\\$") + '"';
+    }
+}
@@ -24,18 +24,26 @@
 package com.blackbuild.groovycps.plugin;
 
 import com.blackbuild.groovycps.helpers.PluginHelper;
-import org.gradle.api.GradleException;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.Dependency;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFile;
 import org.gradle.api.internal.provider.DefaultProvider;
 import org.gradle.api.plugins.GroovyPlugin;
 import org.gradle.api.provider.Provider;
-import org.gradle.api.resources.TextResource;
+import org.gradle.api.tasks.GroovySourceDirectorySet;
+import org.gradle.api.tasks.SourceSet;
+import org.gradle.api.tasks.SourceSetContainer;
+import org.gradle.api.tasks.TaskProvider;
 import org.gradle.api.tasks.compile.GroovyCompile;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+
+import static java.util.Arrays.asList;
 
 /**
  * Plugin that prepares a project for CPS usage. Applies the "groovy" plugin
@@ -44,6 +52,12 @@ import java.io.File;
 public class GroovyCpsPlugin implements Plugin<Project> {
 
     private static final String GROOVY_CONFIGURATION = "groovy";
+    public static final String ABI_SNAPSHOT_TASK = "cpsAbiSnapshot";
+    public static final String API_CLASSES_TASK = "cpsApiClasses";
+    public static final String COMPILER_CONFIGURATION_TASK = "cpsCompilerConfiguration";
+    public static final String CPS_CHECK_TASK = "cpsCheck";
+    public static final String INSTRUMENTED_CONFIGURATION_TASK = "cpsInstrumentedCompilerConfiguration";
+    public static final String INSTRUMENTED_COMPILE_TASK = "compileCpsInstrumentedGroovy";
     private Project project;
     private GroovyCpsPluginExtension extension;
 
@@ -55,9 +69,19 @@ public class GroovyCpsPlugin implements Plugin<Project> {
         extension = project.getExtensions().create("cps", GroovyCpsPluginExtension.class);
         extension.getCpsVersion().convention("1.32");
         extension.getGroovyVersion().convention("2.4.21");
+        extension.getCompileAvoidance().convention(true);
+        extension.getIncrementalCompilation().convention(true);
+        extension.getAstChecker().convention(true);
+        extension.getCallGraphAnalysis().convention(false);
+        extension.getMethodInstrumentation().convention(false);
+        extension.getStarImports().set(asList("com.cloudbees.groovy.cps", "hudson.model", "jenkins.model"));
+        extension.getImports().set(Collections.emptyList());
+        extension.getScriptBaseClass().convention("org.jenkinsci.plugins.workflow.cps.CpsScript");
 
         createGroovyConfiguration();
         activateCps();
+        configureCompileAvoidance();
+        configureCpsCheck();
     }
 
     private void createGroovyConfiguration() {
@@ -87,13 +111,130 @@ public class GroovyCpsPlugin implements Plugin<Project> {
         GroovyCompile compileGroovy = (GroovyCompile) project.getTasks().getByName("compileGroovy");
         compileGroovy.setGroovyClasspath(project.getConfigurations().getByName(GROOVY_CONFIGURATION));
 
-        File existingConfigScript = compileGroovy.getGroovyOptions().getConfigurationScript();
-        if (existingConfigScript != null)
-            throw new GradleException("Groovy-CPS-Plugin does not support existing configuration scripts yet.");
+        Provider<RegularFile> scriptFile = project.getLayout().getBuildDirectory().file("cps/compilerConfiguration.groovy");
+        TaskProvider<GenerateCpsCompilerConfiguration> generateConfiguration = project.getTasks().register(COMPILER_CONFIGURATION_TASK, GenerateCpsCompilerConfiguration.class, t -> {
+            t.setDescription("Generates the Groovy compiler configuration for CPS compilation.");
+            t.getStarImports().set(extension.getStarImports());
+            t.getImports().set(extension.getImports());
+            t.getAstChecker().set(extension.getAstChecker());
+            // instrumented classes are compiled separately for tests, see configureMethodInstrumentation
+            t.getMethodInstrumentation().set(false);
+            t.getScriptBaseClass().set(extension.getScriptBaseClass());
+            t.getScriptFile().set(scriptFile);
+        });
+        compileGroovy.dependsOn(generateConfiguration);
+        configureMethodInstrumentation(generateConfiguration);
+
+        project.afterEvaluate(p -> {
+            // a configuration script set by the build is evaluated after the generated one
+            File generatedScript = scriptFile.get().getAsFile();
+            File existingConfigScript = compileGroovy.getGroovyOptions().getConfigurationScript();
+            if (existingConfigScript != null && !existingConfigScript.equals(generatedScript))
+                generateConfiguration.configure(t -> t.getAdditionalScript().set(existingConfigScript));
+            compileGroovy.getGroovyOptions().setConfigurationScript(generatedScript);
 
-        @SuppressWarnings("DataFlowIssue") TextResource scriptText = project.getResources().getText().fromUri(this.getClass().getResource(".groovyCompile.groovy"));
-        compileGroovy.getGroovyOptions().setConfigurationScript(scriptText.asFile());
+            if (extension.getCallGraphAnalysis().get())
+                configureCallGraphAnalysis(compileGroovy, generateConfiguration);
+
+            // Gradle tracks the dependencies between the compiled classes itself, CPS transformed bodies still
+            // reference the classes they use, so a changed file only recompiles itself and its dependents
+            compileGroovy.getOptions().setIncremental(extension.getIncrementalCompilation().get());
+        });
     }
 
+    private void configureCallGraphAnalysis(GroovyCompile compileGroovy, TaskProvider<GenerateCpsCompilerConfiguration> generateConfiguration) {
+        File summaryDir = project.getLayout().getBuildDirectory().dir("cps-summaries/" + SourceSet.MAIN_SOURCE_SET_NAME).get().getAsFile();
+        // relative, so the generated configuration stays relocatable for the build cache
+        String relativePath = compileGroovy.getDestinationDirectory().get().getAsFile().toPath()
+                .relativize(summaryDir.toPath()).toString().replace(File.separatorChar, '/');
+        generateConfiguration.configure(t -> t.getCallGraphSummaries().set(relativePath));
+        compileGroovy.getOutputs().dir(summaryDir).withPropertyName("cpsCallGraphSummaries");
+    }
 
+    private void configureMethodInstrumentation(TaskProvider<GenerateCpsCompilerConfiguration> mainConfiguration) {
+        SourceSetContainer sourceSets = project.getExtensions().getByType(SourceSetContainer.class);
+        SourceSet main = sourceSets.getByName(SourceSet.MAIN_SOURCE_SET_NAME);
+        SourceSet test = sourceSets.getByName(SourceSet.TEST_SOURCE_SET_NAME);
+
+        Provider<RegularFile> scriptFile = project.getLayout().getBuildDirectory().file("cps/instrumentedCompilerConfiguration.groovy");
+        TaskProvider<GenerateCpsCompilerConfiguration> generateConfiguration = project.getTasks().register(INSTRUMENTED_CONFIGURATION_TASK, GenerateCpsCompilerConfiguration.class, t -> {
+            t.setDescription("Generates the Groovy compiler configuration for the instrumented classes used by tests.");
+            t.getStarImports().set(extension.getStarImports());
+            t.getImports().set(extension.getImports());
+            // violations are already reported by the main compilation
+            t.getAstChecker().set(false);
+            t.getMethodInstrumentation().set(true);
+            t.getScriptBaseClass().set(extension.getScriptBaseClass());
+            t.getAdditionalScript().set(mainConfiguration.flatMap(GenerateCpsCompilerConfiguration::getAdditionalScript));
+            t.getScriptFile().set(scriptFile);
+        });
+        TaskProvider<GroovyCompile> compileInstrumented = project.getTasks().register(INSTRUMENTED_COMPILE_TASK, GroovyCompile.class, t -> {
+            t.setDescription("Compiles the main classes with method instrumentation, only used by tests.");
+            t.setSource(main.getExtensions().getByType(GroovySourceDirectorySet.class));
+            t.setClasspath(main.getCompileClasspath());
+            t.setGroovyClasspath(project.getConfigurations().getByName(GROOVY_CONFIGURATION));
+            t.getDestinationDirectory().set(project.getLayout().getBuildDirectory().dir("classes/groovy/cpsInstrumented"));
+            t.getGroovyOptions().setConfigurationScript(scriptFile.get().getAsFile());
+            t.dependsOn(generateConfiguration);
+        });
+
+        // the instrumented classes replace the groovy classes of main, so they never end up in the jar
+        FileCollection mainClasses = main.getOutput().getClassesDirs();
+        FileCollection otherEntries = test.getRuntimeClasspath().minus(mainClasses);
+        test.setRuntimeClasspath(project.files(
+                (Callable<Object>) () -> extension.getMethodInstrumentation().get()
+                        ? asList(compileInstrumented.flatMap(GroovyCompile::getDestinationDirectory), main.getJava().getClassesDirectory())
+                        : mainClasses,
+                otherEntries));
+    }
+
+    private void configureCompileAvoidance() {
+        SourceSetContainer sourceSets = project.getExtensions().getByType(SourceSetContainer.class);
+        SourceSet main = sourceSets.getByName(SourceSet.MAIN_SOURCE_SET_NAME);
+        SourceSet test = sourceSets.getByName(SourceSet.TEST_SOURCE_SET_NAME);
+
+        TaskProvider<CpsAbiSnapshot> abiSnapshot = project.getTasks().register(ABI_SNAPSHOT_TASK, CpsAbiSnapshot.class, t -> {
+            t.setDescription("Writes the public API of the main classes.");
+            t.getClassesDirs().from(main.getOutput().getClassesDirs());
+            t.getAbiFile().set(project.getLayout().getBuildDirectory().file("cps-api/main.abi"));
+        });
+        TaskProvider<CpsApiClasses> apiClasses = project.getTasks().register(API_CLASSES_TASK, CpsApiClasses.class, t -> {
+            t.setDescription("Provides the main classes to test compilation, updated only if their API changes.");
+            t.getAbiFile().set(abiSnapshot.flatMap(CpsAbiSnapshot::getAbiFile));
+            t.getClassesDirs().from(main.getOutput().getClassesDirs());
+            t.getDestinationDir().set(project.getLayout().getBuildDirectory().dir("cps-api/classes"));
+        });
+
+        FileCollection mainClasses = main.getOutput().getClassesDirs();
+        FileCollection otherEntries = test.getCompileClasspath().minus(mainClasses);
+        test.setCompileClasspath(project.files(
+                (Callable<Object>) () -> extension.getCompileAvoidance().get() ? apiClasses.flatMap(CpsApiClasses::getDestinationDir) : mainClasses,
+                otherEntries));
+    }
+
+    @SuppressWarnings("DataFlowIssue")
+    private void configureCpsCheck() {
+        SourceSet main = project.getExtensions().getByType(SourceSetContainer.class).getByName(SourceSet.MAIN_SOURCE_SET_NAME);
+        Provider<CpsCheckService> service = project.getGradle().getSharedServices().registerIfAbsent(CpsCheckService.NAME, CpsCheckService.class, spec -> {});
+
+        project.getTasks().register(CPS_CHECK_TASK, CpsCheck.class, t -> {
+            t.setGroup("verification");
+            t.setDescription("Checks the main sources for CPS violations without compiling them.");
+            t.getSource().from(main.getExtensions().findByType(GroovySourceDirectorySet.class));
+            // library classes are resolved from source, so the check does not depend on compileGroovy
+            t.getClasspath().from(main.getCompileClasspath());
+            t.getCheckerClasspath().from(project.getConfigurations().getByName(GROOVY_CONFIGURATION));
+            t.getStarImports().set(extension.getStarImports());
+            t.getImports().set(extension.getImports());
+            t.getScriptBaseClass().set(extension.getScriptBaseClass());
+            t.getIgnoreFailures().convention(false);
+            t.getChunkSize().convention(25);
+            t.getMaxWorkers().convention(project.getGradle().getStartParameter().getMaxWorkerCount());
+            t.getBaseDirectory().set(project.getLayout().getProjectDirectory());
+            t.getResultsDir().set(project.getLayout().getBuildDirectory().dir("cps-check"));
+            t.getReportFile().set(project.getLayout().getBuildDirectory().file("reports/cps-check/cps-check.sarif"));
+            t.getCheckService().set(service);
+            t.usesService(service);
+        });
+    }
 }
@@ -24,8 +24,11 @@
 package com.blackbuild.groovycps.plugin;
 
 
+import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
 
+import java.util.Arrays;
+
 /**
  * Extension for {@link GroovyCpsPlugin}.
  */
@@ -40,4 +43,83 @@ public abstract class GroovyCpsPluginExtension {
      * The version of groovy to use.
      */
     protected abstract Property<String> getGroovyVersion();
+
+    /**
+     * Whether the AST checker validating CPS rules runs during compilation. Defaults to true, can be
+     * turned off for faster local builds.
+     */
+    public abstract Property<Boolean> getAstChecker();
+
+    public void disableAstChecker() {
+        getAstChecker().set(false);
+    }
+
+    /**
+     * Whether to analyze the call graph of the whole library for CPS violations spanning several methods or
+     * classes, e.g. NonCPS methods calling interface methods with CPS implementations. Defaults to false.
+     * Summaries of the compiled classes are kept in "build/cps-summaries", so incremental compilation only
+     * analyzes the changed classes again.
+     */
+    public abstract Property<Boolean> getCallGraphAnalysis();
+
+    public void callGraphAnalysis() {
+        getCallGraphAnalysis().set(true);
+    }
+
+    /**
+     * Whether to weave invocation counters and timers into all compiled methods, CPS transformed and NonCPS.
+     * Defaults to false. The instrumented classes are compiled separately and only used by tests, the main
+     * classes and the jar are not instrumented. The results can be read in tests using
+     * {@code AbstractCpsTest.getMethodStatistics()}.
+     */
+    public abstract Property<Boolean> getMethodInstrumentation();
+
+    public void instrumentMethods() {
+        getMethodInstrumentation().set(true);
+    }
+
+    /**
+     * Packages that are star imported into all compiled classes. Defaults to
+     * "com.cloudbees.groovy.cps", "hudson.model" and "jenkins.model".
+     */
+    public abstract ListProperty<String> getStarImports();
+
+    public void starImports(String... packages) {
+        getStarImports().addAll(Arrays.asList(packages));
+    }
+
+    /**
+     * Classes that are imported into all compiled classes.
+     */
+    public abstract ListProperty<String> getImports();
+
+    public void imports(String... classes) {
+        getImports().addAll(Arrays.asList(classes));
+    }
+
+    /**
+     * The base class for compiled scripts. Defaults to "org.jenkinsci.plugins.workflow.cps.CpsScript".
+     */
+    public abstract Property<String> getScriptBaseClass();
+
+    /**
+     * Whether test compilation should only depend on the API of the main classes instead of the
+     * CPS transformed class files. Defaults to true.
+     */
+    public abstract Property<Boolean> getCompileAvoidance();
+
+    public void disableCompileAvoidance() {
+        getCompileAvoidance().set(false);
+    }
+
+    /**
+     * Whether main compilation should be incremental, i.e. only recompile changed files and the classes
+     * depending on them. Defaults to true. Must be disabled if Java annotation processors are used in
+     * Groovy compilation.
+     */
+    public abstract Property<Boolean> getIncrementalCompilation();
+
+    public void disableIncrementalCompilation() {
+        getIncrementalCompilation().set(false);
+    }
 }
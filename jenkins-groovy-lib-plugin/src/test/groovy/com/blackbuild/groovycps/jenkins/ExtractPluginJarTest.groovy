@@ -0,0 +1,130 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.jenkins
+
+import org.gradle.api.artifacts.transform.TransformOutputs
+import org.gradle.api.file.FileSystemLocation
+import org.gradle.api.provider.Provider
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import java.util.zip.ZipOutputStream
+
+class ExtractPluginJarTest extends Specification {
+
+    @TempDir File tempDir
+    File outputDir
+    List<String> outputs = []
+
+    def setup() {
+        outputDir = new File(tempDir, "out")
+        outputDir.mkdirs()
+    }
+
+    def "plugin jar, classes and libraries are extracted"() {
+        given:
+        def plugin = createArchive("job-dsl-1.77.hpi", [
+                "META-INF/MANIFEST.MF"       : "Manifest-Version: 1.0",
+                "WEB-INF/lib/job-dsl.jar"    : "plugin",
+                "WEB-INF/lib/job-dsl-core.jar": "core",
+                "WEB-INF/lib/asm.jar"        : "asm",
+                "WEB-INF/classes/Foo.class"  : "foo",
+                "images/logo.png"            : "png"
+        ])
+
+        when:
+        transform(plugin)
+
+        then:
+        outputs == ["job-dsl.jar", "job-dsl-1.77-classes.jar", "asm.jar", "job-dsl-core.jar"]
+        new File(outputDir, "job-dsl.jar").text == "plugin"
+        new ZipFile(new File(outputDir, "job-dsl-1.77-classes.jar")).withCloseable { zip ->
+            zip.entries().collect { it.name } == ["Foo.class"]
+        }
+    }
+
+    def "bundled libraries with a POM are left to dependency resolution"() {
+        given:
+        def plugin = createArchive("job-dsl-1.77.hpi", [
+                "WEB-INF/lib/job-dsl.jar"          : "plugin",
+                "WEB-INF/lib/job-dsl-core-1.77.jar": createJar(["META-INF/maven/org.jenkins-ci.plugins/job-dsl-core/pom.properties": "version=1.77"]),
+                "WEB-INF/lib/vendored.jar"         : createJar(["Vendored.class": "vendored"])
+        ])
+
+        when:
+        transform(plugin)
+
+        then:
+        outputs == ["job-dsl.jar", "vendored.jar"]
+    }
+
+    def "archive without jars produces no output"() {
+        given:
+        def plugin = createArchive("empty-1.0.hpi", ["META-INF/MANIFEST.MF": "Manifest-Version: 1.0"])
+
+        when:
+        transform(plugin)
+
+        then:
+        outputs.isEmpty()
+    }
+
+    void transform(File plugin) {
+        def location = Stub(FileSystemLocation) { getAsFile() >> plugin }
+        def artifact = Stub(Provider) { get() >> location }
+        def transformOutputs = Stub(TransformOutputs) {
+            file(_) >> { Object name ->
+                outputs << name.toString()
+                new File(outputDir, name.toString())
+            }
+        }
+        def action = new ExtractPluginJar() {
+            @Override
+            Provider<FileSystemLocation> getInputArtifact() {
+                return artifact
+            }
+        }
+        action.transform(transformOutputs)
+    }
+
+    File createArchive(String name, Map<String, Object> entries) {
+        def file = new File(tempDir, name)
+        file.bytes = createJar(entries)
+        return file
+    }
+
+    byte[] createJar(Map<String, Object> entries) {
+        def result = new ByteArrayOutputStream()
+        new ZipOutputStream(result).withCloseable { out ->
+            entries.each { path, content ->
+                out.putNextEntry(new ZipEntry(path))
+                out.write(content instanceof byte[] ? content : content.toString().bytes)
+                out.closeEntry()
+            }
+        }
+        return result.toByteArray()
+    }
+}
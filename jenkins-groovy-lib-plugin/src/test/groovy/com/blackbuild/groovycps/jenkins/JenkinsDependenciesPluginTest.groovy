@@ -27,6 +27,9 @@ import com.blackbuild.groovycps.tests.GradleIntegrationTest
 import org.gradle.testkit.runner.TaskOutcome
 import org.intellij.lang.annotations.Language
 
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
 class JenkinsDependenciesPluginTest extends GradleIntegrationTest {
 
     String pluginIdToTest = "com.blackbuild.jenkins.dependencies"
@@ -111,6 +114,47 @@ blueocean=1.27.0
         noExceptionThrown()
     }
 
+    def "plugin index is shared via build service"() {
+        given:
+        withDefaultRepositories()
+        withBuild """
+jenkins {
+    plugin "blueocean"
+}
+"""
+        withVerifyTask '''
+        def registration = project.gradle.sharedServices.registrations.findByName("jenkinsPluginIndex")
+        assert registration != null
+        def service = registration.service.get()
+        def mapping = project.file("plugins/mapping.properties")
+        def versions = project.file("plugins/versions.properties")
+        def index = service.getIndex(project.file("build/plugins.idx"), mapping, versions)
+        assert index.is(service.getIndex(project.file("build/other.idx"), mapping, versions))
+        assert index.getGroupAndArtifact("blueocean") == "io.jenkins.blueocean:blueocean"
+        assert index.getVersion("io.jenkins.blueocean:blueocean") == "1.27.0"
+
+        def modified = versions.lastModified()
+        versions.text = versions.text.replace("1.27.0", "1.27.1")
+        versions.setLastModified(modified + 2000)
+        def changed = service.getIndex(project.file("build/plugins.idx"), mapping, versions)
+        assert !changed.is(index)
+        assert changed.getVersion("io.jenkins.blueocean:blueocean") == "1.27.1"
+        assert changed.is(service.getIndex(project.file("build/plugins.idx"), mapping, versions))
+'''
+        withPluginMapping '''
+blueocean=io.jenkins.blueocean:blueocean
+'''
+        withVersionMapping '''
+blueocean=1.27.0
+'''
+
+        when:
+        runVerifyTask()
+
+        then:
+        noExceptionThrown()
+    }
+
     def "plugins jars are added to implementation"() {
         given:
         withDefaultRepositories()
@@ -120,12 +164,12 @@ jenkins {
 }
 """
         withVerifyTask '''
-        assert project.configurations.compileClasspath.resolvedConfiguration.firstLevelModuleDependencies.find { 
-            it.moduleGroup == "io.jenkins.blueocean" && it.moduleName == "blueocean" && it.moduleVersion == "1.27.0" 
-        }
-        assert project.configurations.compileClasspath.resolvedConfiguration.firstLevelModuleDependencies.find { 
-            it.moduleGroup == "io.jenkins.blueocean" && it.moduleName == "blueocean-web" && it.moduleVersion == "1.27.0" 
-        }
+        def artifacts = project.configurations.compileClasspath.incoming.artifacts.artifacts
+        assert artifacts.find { it.id.componentIdentifier.displayName == "io.jenkins.blueocean:blueocean:1.27.0" }
+        def web = artifacts.find { it.id.componentIdentifier.displayName == "io.jenkins.blueocean:blueocean-web:1.27.0" }
+        assert web
+        assert web.file.name.endsWith(".jar")
+        assert !artifacts.find { it.file.name.endsWith(".hpi") }
 
 '''
         withPluginMapping '''
@@ -142,6 +186,74 @@ blueocean=1.27.0
         noExceptionThrown()
     }
 
+    def "bundled libraries are not duplicated on the classpath"() {
+        given:
+        withDefaultRepositories()
+        withBuild """
+jenkins {
+    doNotAddJenkinsRepository()
+    plugin "job-dsl"
+}
+"""
+        withPlugins([
+                "org.jenkins-ci.plugins:job-dsl:1.77",
+                "org.jenkins-ci.plugins:structs:1.19",
+                "org.jenkins-ci.plugins:script-security:1.54"
+        ])
+        withVerifyTask '''
+        def names = project.configurations.testRuntimeClasspath.files*.name.collect { it - ~/-\\d[^-]*(-SNAPSHOT)?\\.jar$/ - ~/\\.jar$/ }
+        def duplicates = names.countBy { it }.findAll { it.value > 1 }.keySet()
+        assert duplicates.isEmpty()
+        assert names.contains("job-dsl-core")
+'''
+
+        when:
+        runVerifyTask()
+
+        then:
+        noExceptionThrown()
+    }
+
+    def "plugin dependencies can be pre-resolved from the dependency graph"() {
+        given:
+        withDefaultRepositories()
+        withBuild """
+jenkins {
+    plugin "job-dsl"
+    preResolvePluginDependencies()
+}
+"""
+        withVerifyTask '''
+        def resolved = project.configurations.jenkinsPlugins.resolvedConfiguration.firstLevelModuleDependencies
+        assert resolved.collect { it.moduleName }.containsAll(["job-dsl", "script-security", "structs"])
+        assert resolved.find { it.moduleName == "job-dsl" }.moduleVersion == "1.77"
+
+        def declared = project.configurations.jenkinsPlugins.dependencies.collectEntries { [it.name, it.version] }
+        assert declared["script-security"] == "1.54"
+        // script-security requires a higher version than job-dsl
+        assert declared["structs"] == "1.20"
+'''
+        withPluginMapping '''
+job-dsl=org.jenkins-ci.plugins:job-dsl
+script-security=org.jenkins-ci.plugins:script-security
+structs=org.jenkins-ci.plugins:structs
+'''
+        withVersionMapping '''
+job-dsl=1.77
+'''
+        new File(testProjectDir, JenkinsDependenciesExtension.DEFAULT_PLUGIN_DEPENDENCIES).text = '''
+job-dsl=structs:1.19,script-security:1.54
+script-security=structs:1.20
+structs=
+'''
+
+        when:
+        runVerifyTask()
+
+        then:
+        noExceptionThrown()
+    }
+
     def "plugin version can be explicitly overridden."() {
         given:
         withDefaultRepositories()
@@ -254,6 +366,158 @@ jenkins {
         pluginDir.list().sort().toList() == ["job-dsl.hpi", "structs.hpi", "script-security.hpi", "index"].sort()
     }
 
+    def "plugin directory is synchronized incrementally"() {
+        given:
+        def pluginDir = new File(testProjectDir, "build/jenkins-plugins/test-dependencies")
+        withDefaultRepositories()
+        withBuild """
+jenkins {
+    doNotAddJenkinsRepository()
+    plugin "job-dsl"
+}
+"""
+        withPlugins([
+                "org.jenkins-ci.plugins:job-dsl:1.77",
+                "org.jenkins-ci.plugins:structs:1.19",
+                "org.jenkins-ci.plugins:script-security:1.54"
+        ])
+
+        when:
+        runTask("copyJenkinsPlugins")
+        def result = runTask("copyJenkinsPlugins")
+
+        then:
+        result.task(":copyJenkinsPlugins").outcome == TaskOutcome.UP_TO_DATE
+
+        when:
+        buildFile.text = buildFile.text.replace('plugin "job-dsl"', 'plugin "structs"')
+        runTask("copyJenkinsPlugins")
+
+        then:
+        new File(pluginDir, "index").text.readLines() == ["structs"]
+        pluginDir.list().sort().toList() == ["index", "structs.hpi"]
+    }
+
+    def "plugins with the same target name are rejected"() {
+        given:
+        pluginArchive("first/demo-1.0.hpi", 1_600_000_000_000L)
+        pluginArchive("second/demo-2.0.hpi", 1_600_000_000_000L)
+        withBuild """
+tasks.register("copyDuplicates", com.blackbuild.groovycps.jenkins.CopyJenkinsPlugins) {
+    plugins.from("first/demo-1.0.hpi", "second/demo-2.0.hpi")
+    targetNames = ["demo-1.0.hpi": "demo.hpi", "demo-2.0.hpi": "demo.hpi"]
+    destinationDir = file("build/duplicates")
+}
+"""
+
+        when:
+        def result = runTaskAndFail("copyDuplicates")
+
+        then:
+        result.output.contains("would both be copied to demo.hpi")
+        !new File(testProjectDir, "build/duplicates/demo.hpi").exists()
+    }
+
+    def "plugins are exploded"() {
+        given:
+        def explodedDir = new File(testProjectDir, "build/exploded-plugins")
+        withDefaultRepositories()
+        withBuild """
+jenkins {
+    doNotAddJenkinsRepository()
+    explodePlugins()
+    plugin "job-dsl"
+}
+"""
+        withPlugins([
+                "org.jenkins-ci.plugins:job-dsl:1.77",
+                "org.jenkins-ci.plugins:structs:1.19",
+                "org.jenkins-ci.plugins:script-security:1.54"
+        ])
+
+        when:
+        runTask("explodeJenkinsPlugins")
+
+        then:
+        explodedDir.list().sort().toList() == ["job-dsl", "script-security", "structs"]
+        new File(explodedDir, "job-dsl/META-INF/MANIFEST.MF").isFile()
+        new File(explodedDir, "job-dsl/.timestamp2").isFile()
+    }
+
+    def "plugin directories with different archive timestamps share the exploded cache"() {
+        given:
+        def cacheDir = new File(testProjectDir, "build/cache")
+        def first = pluginArchive("first/demo.hpi", 1_600_000_000_000L)
+        def second = pluginArchive("second/demo.hpi", 1_700_000_000_000L)
+        withBuild """
+['first', 'second'].each { name ->
+    tasks.register("explode\${name.capitalize()}", com.blackbuild.groovycps.jenkins.ExplodeJenkinsPlugins) {
+        pluginDirectory = file(name)
+        cacheDirectory = file('build/cache')
+        explodedDirectory = file("build/exploded-\$name")
+    }
+}
+"""
+
+        when:
+        runTask("explodeFirst", "explodeSecond")
+
+        then:
+        cacheDir.list().size() == 1
+        !new File(cacheDir.listFiles()[0], ExplodeJenkinsPlugins.TIMESTAMP_FILE).exists()
+
+        and: "jenkins considers both exploded plugins up to date"
+        new File(testProjectDir, "build/exploded-first/demo/META-INF/MANIFEST.MF").isFile()
+        new File(testProjectDir, "build/exploded-first/demo/.timestamp2").lastModified() == first.lastModified()
+        new File(testProjectDir, "build/exploded-second/demo/META-INF/MANIFEST.MF").isFile()
+        new File(testProjectDir, "build/exploded-second/demo/.timestamp2").lastModified() == second.lastModified()
+    }
+
+    File pluginArchive(String path, long lastModified) {
+        def archive = new File(testProjectDir, path)
+        archive.parentFile.mkdirs()
+        archive.withOutputStream {
+            def zip = new ZipOutputStream(it)
+            zip.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"))
+            zip << "Short-Name: demo\n"
+            zip.closeEntry()
+            zip.finish()
+        }
+        archive.setLastModified(lastModified)
+        return archive
+    }
+
+    def "plugin mappings follow a switch between cached update centers"() {
+        given:
+        def first = updateCenter("first.json", "org.example:first-plugin:1.0")
+        def second = updateCenter("second.json", "org.example:second-plugin:1.0")
+        withBuild """
+jenkins {
+    updateCenterUrl = property('updateCenter')
+}
+"""
+
+        when:
+        runTask("updatePluginMappings", "-PupdateCenter=" + first.toURI())
+        runTask("updatePluginMappings", "-PupdateCenter=" + second.toURI())
+        runTask("updatePluginMappings", "-PupdateCenter=" + first.toURI())
+
+        then: "the last run is served from the cache"
+        pluginMapping.text.contains("first-plugin")
+
+        when:
+        runTask("updatePluginMappings", "-PupdateCenter=" + second.toURI())
+
+        then:
+        pluginMapping.text.contains("second-plugin")
+    }
+
+    File updateCenter(String name, String gav) {
+        def file = new File(testProjectDir, name)
+        file.text = """{"plugins": {"demo": {"gav": "$gav", "dependencies": []}}}"""
+        return file
+    }
+
     def "test harness is added"() {
         given:
         withDefaultRepositories()
@@ -352,6 +616,69 @@ class MyTest extends Specification {
         result.task(":copyJenkinsPlugins").outcome == TaskOutcome.SUCCESS
     }
 
+    def "plugin tasks are configuration cache compatible"() {
+        given:
+        def updateCenter = new File(testProjectDir, "update-center.json")
+        updateCenter.text = '''{"plugins": {
+    "job-dsl": {"gav": "org.jenkins-ci.plugins:job-dsl:1.77", "dependencies": [
+        {"name": "structs", "optional": false, "version": "1.19"},
+        {"name": "script-security", "optional": false, "version": "1.54"}
+    ]},
+    "script-security": {"gav": "org.jenkins-ci.plugins:script-security:1.54", "dependencies": []},
+    "structs": {"gav": "org.jenkins-ci.plugins:structs:1.19", "dependencies": []}
+}}'''
+        withDefaultRepositories()
+        withBuild """
+jenkins {
+    doNotAddJenkinsRepository()
+    useTestHarness()
+    explodePlugins()
+    updateCenterUrl = "${updateCenter.toURI()}"
+    plugin "job-dsl"
+}
+
+dependencies {
+    testImplementation 'org.spockframework:spock-core:1.3-groovy-2.4'
+}
+"""
+        withPlugins([
+                "org.jenkins-ci.plugins:job-dsl:1.77",
+                "org.jenkins-ci.plugins:structs:1.19",
+                "org.jenkins-ci.plugins:script-security:1.54"
+        ])
+        withFile "src/test/groovy/MyTest.groovy", '''
+import spock.lang.Specification
+class MyTest extends Specification {
+    def 'my test'() {
+        expect:
+        new File(System.getProperty("jth.jenkins-war.path")).exists()
+    }
+}
+'''
+
+        when: "the test task uses the jenkins war argument provider and the exploded plugins"
+        def first = runTask("test", "--configuration-cache")
+        // changed outputs make both tasks run again, the exploded plugins themselves link into the shared cache
+        new File(testProjectDir, "build/test-results").deleteDir()
+        new File(testProjectDir, "build/exploded-plugins/job-dsl/.timestamp2").delete()
+        def second = runTask("test", "--configuration-cache")
+
+        then:
+        first.task(":explodeJenkinsPlugins").outcome == TaskOutcome.SUCCESS
+        second.output.contains("Reusing configuration cache.")
+        second.task(":explodeJenkinsPlugins").outcome == TaskOutcome.SUCCESS
+        second.task(":test").outcome == TaskOutcome.SUCCESS
+
+        when:
+        runTask("updatePluginMappings", "--configuration-cache")
+        def update = runTask("updatePluginMappings", "--configuration-cache")
+
+        then:
+        update.output.contains("Reusing configuration cache.")
+        update.task(":updatePluginMappings").outcome in [TaskOutcome.SUCCESS, TaskOutcome.UP_TO_DATE]
+        pluginMapping.text.contains("job-dsl=org.jenkins-ci.plugins\\:job-dsl")
+    }
+
     def "BUG: fails on existing plugin folder"() {
         given:
         withDefaultRepositories()
@@ -0,0 +1,82 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.jenkins
+
+import com.blackbuild.groovycps.helpers.PluginDependencyGraph
+import spock.lang.Specification
+import spock.lang.TempDir
+
+class PluginDependencyGraphTest extends Specification {
+
+    @TempDir File tempDir
+
+    def "transitive closure is computed with highest required versions"() {
+        given:
+        def file = new File(tempDir, "dependencies.properties")
+        file.text = '''
+job-dsl=structs:1.19,script-security:1.54
+script-security=structs:1.20.1
+structs=
+workflow-cps=workflow-api:2.10
+'''
+        def graph = PluginDependencyGraph.load(file)
+
+        expect:
+        graph.closure(["job-dsl"]) == ["structs": "1.20.1", "script-security": "1.54"]
+        graph.closure(["structs"]) == [:]
+        graph.closure(["unknown"]) == [:]
+    }
+
+    def "cycles are handled"() {
+        given:
+        def file = new File(tempDir, "dependencies.properties")
+        file.text = '''
+a=b:1.0
+b=a:2.0
+'''
+        expect:
+        PluginDependencyGraph.load(file).closure(["a"]) == ["b": "1.0", "a": "2.0"]
+    }
+
+    def "missing file is an empty graph"() {
+        expect:
+        PluginDependencyGraph.load(new File(tempDir, "missing")).closure(["a"]) == [:]
+    }
+
+    def "dependencies are formatted"() {
+        expect:
+        PluginDependencyGraph.format(["structs": "1.19", "script-security": "1.54"]) == "structs:1.19,script-security:1.54"
+    }
+
+    def "dependencies without version are written and read without version"() {
+        given:
+        def file = new File(tempDir, "dependencies.properties")
+        def formatted = PluginDependencyGraph.format(["structs": null, "script-security": "1.54"])
+        file.text = "job-dsl=$formatted"
+
+        expect:
+        formatted == "structs,script-security:1.54"
+        PluginDependencyGraph.load(file).closure(["job-dsl"]) == ["structs": null, "script-security": "1.54"]
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.jenkins
+
+import com.blackbuild.groovycps.helpers.PluginIndex
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.nio.file.Files
+import java.nio.file.attribute.BasicFileAttributes
+
+class PluginIndexTest extends Specification {
+
+    @TempDir File tempDir
+    File mappingFile
+    File versionsFile
+    File indexFile
+
+    def setup() {
+        mappingFile = new File(tempDir, "mapping.properties")
+        versionsFile = new File(tempDir, "versions.properties")
+        indexFile = new File(tempDir, "build/plugins.idx")
+    }
+
+    def "mappings and versions can be looked up"() {
+        given:
+        mappingFile.text = '''
+blueocean=io.jenkins.blueocean:blueocean
+job-dsl=org.jenkins-ci.plugins:job-dsl
+structs=org.jenkins-ci.plugins:structs
+'''
+        versionsFile.text = '''
+blueocean=1.27.0
+structs=1.19
+unknown=1.0
+'''
+        when:
+        def index = PluginIndex.load(indexFile, mappingFile, versionsFile)
+
+        then:
+        index.size() == 3
+        index.getGroupAndArtifact("blueocean") == "io.jenkins.blueocean:blueocean"
+        index.getGroupAndArtifact("structs") == "org.jenkins-ci.plugins:structs"
+        index.getGroupAndArtifact("unknown") == null
+        index.getVersion("io.jenkins.blueocean:blueocean") == "1.27.0"
+        index.getVersion("org.jenkins-ci.plugins:structs") == "1.19"
+        index.getVersion("org.jenkins-ci.plugins:job-dsl") == null
+        index.getVersion("org.jenkins-ci.plugins:unknown") == null
+        index.getVersion("structs") == null
+    }
+
+    def "index is only regenerated if properties change"() {
+        given:
+        mappingFile.text = "structs=org.jenkins-ci.plugins:structs"
+        versionsFile.text = "structs=1.19"
+        PluginIndex.load(indexFile, mappingFile, versionsFile)
+        indexFile.setLastModified(1_600_000_000_000L)
+
+        when:
+        PluginIndex.load(indexFile, mappingFile, versionsFile)
+
+        then:
+        indexFile.lastModified() == 1_600_000_000_000L
+
+        when: "content changes, but not the length"
+        def versionsTimestamp = versionsFile.lastModified()
+        versionsFile.text = "structs=1.20"
+        versionsFile.setLastModified(versionsTimestamp + 2000)
+        def index = PluginIndex.load(indexFile, mappingFile, versionsFile)
+
+        then:
+        indexFile.lastModified() != 1_600_000_000_000L
+        index.getVersion("org.jenkins-ci.plugins:structs") == "1.20"
+    }
+
+    def "touching the properties files does not regenerate the index"() {
+        given:
+        mappingFile.text = "structs=org.jenkins-ci.plugins:structs"
+        versionsFile.text = "structs=1.19"
+        PluginIndex.load(indexFile, mappingFile, versionsFile)
+        def originalFile = fileKey(indexFile)
+
+        when: "length or timestamp differ, the content is compared and only the header is updated"
+        mappingFile.setLastModified(1_700_000_000_000L)
+        versionsFile.setLastModified(1_700_000_000_000L)
+        PluginIndex.load(indexFile, mappingFile, versionsFile)
+
+        then:
+        fileKey(indexFile) == originalFile
+
+        when: "the header matches again, so the index file is not touched at all"
+        indexFile.setLastModified(1_600_000_000_000L)
+        def index = PluginIndex.load(indexFile, mappingFile, versionsFile)
+
+        then:
+        indexFile.lastModified() == 1_600_000_000_000L
+        index.getVersion("org.jenkins-ci.plugins:structs") == "1.19"
+    }
+
+    def "missing files result in an empty index"() {
+        when:
+        def index = PluginIndex.load(indexFile, mappingFile, versionsFile)
+
+        then:
+        index.size() == 0
+        index.getGroupAndArtifact("structs") == null
+    }
+
+    // identifies the file independent of its content and timestamp, a regenerated index is a new file
+    Object fileKey(File file) {
+        Files.readAttributes(file.toPath(), BasicFileAttributes).fileKey()
+    }
+}
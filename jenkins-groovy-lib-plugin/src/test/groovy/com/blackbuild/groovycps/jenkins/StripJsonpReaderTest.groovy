@@ -41,5 +41,44 @@ class StripJsonpReaderTest extends Specification {
         stripped == '{"bla":"blub"}'
     }
 
+    def "windows line endings are stripped"() {
+        given:
+        String text = 'updateCenter.post(\r\n{"bla":"blub"}\r\n);'
+
+        when:
+        def stripped = new StripJsonpReader(new StringReader(text)).text
+
+        then:
+        stripped == '{"bla":"blub"}'
+    }
 
+    def "content larger than the buffer is returned completely"() {
+        given:
+        String content = '{"bla":"' + ("x" * (StripJsonpReader.BUFFER_SIZE * 3 + 17)) + '"}'
+        String text = "updateCenter.post(\n$content\n);"
+
+        when:
+        def stripped = new StripJsonpReader(new StringReader(text)).text
+
+        then:
+        stripped == content
+    }
+
+    def "single character reads stop at end of line"() {
+        given:
+        def reader = new StripJsonpReader(new StringReader('updateCenter.post(\n{}\n);'))
+
+        expect:
+        reader.read() == '{' as char
+        reader.read() == '}' as char
+        reader.read() == -1
+        reader.read() == -1
+    }
+
+    def "newline is found"() {
+        expect:
+        StripJsonpReader.indexOfNewLine("abc\ndef".toCharArray(), 1, 6) == 3
+        StripJsonpReader.indexOfNewLine("abc\rdef".toCharArray(), 0, 7) == 3
+        StripJsonpReader.indexOfNewLine("abc\ndef".toCharArray(), 4, 3) == -1
+    }
 }
@@ -0,0 +1,95 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.jenkins
+
+import spock.lang.Specification
+import spock.lang.TempDir
+
+class UpdateCenterCacheTest extends Specification {
+
+    @TempDir File tempDir
+    File cacheDir
+    File updateCenter
+    File mapping
+
+    def setup() {
+        cacheDir = new File(tempDir, "cache")
+        updateCenter = new File(tempDir, "update-center.json")
+        updateCenter.text = '{"plugins": {}}'
+        updateCenter.setLastModified(1_600_000_000_000L)
+        mapping = new File(tempDir, "mapping.properties")
+        mapping.text = "bla=blub:bli"
+    }
+
+    def "first request is never unmodified"() {
+        when:
+        def cache = new UpdateCenterCache(cacheDir, updateCenter.toURI().toURL())
+
+        then:
+        !cache.isNotModified(cache.openConnection("mapping.properties"))
+    }
+
+    def "unchanged file is detected after storing"() {
+        given:
+        populateCache()
+
+        when:
+        def cache = new UpdateCenterCache(cacheDir, updateCenter.toURI().toURL())
+
+        then:
+        cache.isNotModified(cache.openConnection("mapping.properties"))
+        cache.getCachedFile("mapping.properties").text == "bla=blub:bli"
+    }
+
+    def "changed file is detected"() {
+        given:
+        populateCache()
+        updateCenter.setLastModified(1_700_000_000_000L)
+
+        when:
+        def cache = new UpdateCenterCache(cacheDir, updateCenter.toURI().toURL())
+
+        then:
+        !cache.isNotModified(cache.openConnection("mapping.properties"))
+    }
+
+    def "missing cached files invalidate the cache"() {
+        given:
+        populateCache()
+
+        when:
+        def cache = new UpdateCenterCache(cacheDir, updateCenter.toURI().toURL())
+
+        then:
+        !cache.isNotModified(cache.openConnection("mapping.properties", "other.properties"))
+    }
+
+    void populateCache() {
+        def cache = new UpdateCenterCache(cacheDir, updateCenter.toURI().toURL())
+        def connection = cache.openConnection("mapping.properties")
+        connection.inputStream.close()
+        cache.store("mapping.properties", mapping)
+        cache.storeMetadata(connection)
+    }
+}
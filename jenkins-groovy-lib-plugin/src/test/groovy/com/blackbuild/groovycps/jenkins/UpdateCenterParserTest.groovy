@@ -0,0 +1,131 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.jenkins
+
+import org.gradle.api.GradleException
+import spock.lang.Specification
+
+class UpdateCenterParserTest extends Specification {
+
+    Map<String, String> plugins = [:]
+
+    def "plugin gavs are extracted"() {
+        given:
+        String text = '''{
+  "connectionCheckUrl": "https://www.google.com/",
+  "core": {"name": "core", "version": "2.375.1"},
+  "plugins": {
+    "blueocean": {
+      "dependencies": [{"name": "blueocean-web", "optional": false, "version": "1.27.0"}],
+      "excerpt": "A \\"quoted\\" {text} with [brackets]",
+      "gav": "io.jenkins.blueocean:blueocean:1.27.0",
+      "popularity": 12.5,
+      "releaseTimestamp": null
+    },
+    "job-dsl": {"gav": "org.jenkins-ci.plugins:job-dsl:1.77", "labels": [], "enabled": true}
+  },
+  "signature": {"certificates": ["abc"]}
+}'''
+
+        when:
+        parse(text)
+
+        then:
+        plugins == [
+                "blueocean": "io.jenkins.blueocean:blueocean:1.27.0",
+                "job-dsl": "org.jenkins-ci.plugins:job-dsl:1.77"
+        ]
+    }
+
+    def "dependencies are reported"() {
+        given:
+        def dependencies = []
+        def handler = new UpdateCenterParser.Handler() {
+            void plugin(String shortName, String gav) {}
+
+            void dependency(String shortName, String dependency, String version, boolean optional) {
+                dependencies << [shortName, dependency, version, optional]
+            }
+        }
+
+        when:
+        new UpdateCenterParser(new StringReader('''{"plugins": {
+  "job-dsl": {
+    "dependencies": [
+      {"name": "structs", "optional": false, "version": "1.19"},
+      {"name": "cloudbees-folder", "optional": true, "version": "6.1.0"}
+    ],
+    "gav": "org.jenkins-ci.plugins:job-dsl:1.77"
+  },
+  "structs": {"dependencies": [], "gav": "org.jenkins-ci.plugins:structs:1.19"}
+}}''')).parse(handler)
+
+        then:
+        dependencies == [
+                ["job-dsl", "structs", "1.19", false],
+                ["job-dsl", "cloudbees-folder", "6.1.0", true]
+        ]
+    }
+
+    def "plugins without gav are ignored"() {
+        when:
+        parse('{"plugins": {"bla": {"name": "bla"}, "blub": {}}}')
+
+        then:
+        plugins.isEmpty()
+    }
+
+    def "escapes in strings are decoded"() {
+        when:
+        parse('{"plugins": {"bl\\u0061": {"gav": "g\\/x:a:1"}}}')
+
+        then:
+        plugins == ["bla": "g/x:a:1"]
+    }
+
+    def "works on jsonp stripped input"() {
+        given:
+        String text = '''updateCenter.post(
+{"plugins": {"job-dsl": {"gav": "org.jenkins-ci.plugins:job-dsl:1.77"}}}
+);'''
+
+        when:
+        new UpdateCenterParser(new StripJsonpReader(new StringReader(text))).parse(plugins::put)
+
+        then:
+        plugins == ["job-dsl": "org.jenkins-ci.plugins:job-dsl:1.77"]
+    }
+
+    def "truncated input fails"() {
+        when:
+        parse('{"plugins": {"job-dsl": {"gav": "org.jenkins-ci')
+
+        then:
+        thrown(GradleException)
+    }
+
+    void parse(String text) {
+        new UpdateCenterParser(new StringReader(text)).parse(plugins::put)
+    }
+}
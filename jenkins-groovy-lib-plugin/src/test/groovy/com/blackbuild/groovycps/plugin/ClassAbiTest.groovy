@@ -0,0 +1,92 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.plugin
+
+import org.codehaus.groovy.control.CompilationUnit
+import org.codehaus.groovy.control.Phases
+import spock.lang.Specification
+
+class ClassAbiTest extends Specification {
+
+    def "method bodies and closures do not change the abi"() {
+        expect:
+        abi('''
+            class Foo {
+                def run(List l) { l.each { println it }; return 1 }
+            }
+        ''') == abi('''
+            class Foo {
+                def run(List l) { l.each { println it + 1 }; l.collect { it * 2 }; return 2 }
+            }
+        ''')
+    }
+
+    def "private members are ignored"() {
+        expect:
+        abi('''
+            class Foo {
+                def run() {}
+            }
+        ''') == abi('''
+            class Foo {
+                private int counter
+                def run() {}
+                private void helper() {}
+            }
+        ''')
+    }
+
+    def "public signatures change the abi"() {
+        expect:
+        abi('''
+            class Foo {
+                def run() {}
+            }
+        ''') != abi('''
+            class Foo {
+                def run(String arg) {}
+            }
+        ''')
+    }
+
+    def "closure classes are not part of the abi"() {
+        when:
+        def lines = abi('''
+            class Foo {
+                def run(List l) { l.each { println it } }
+            }
+        ''')
+
+        then:
+        lines.every { it.startsWith("Foo ") || it.startsWith("class Foo ") }
+        lines.contains("Foo method 1 run (Ljava/util/List;)Ljava/lang/Object;")
+    }
+
+    List<String> abi(String source) {
+        def unit = new CompilationUnit()
+        unit.addSource("Foo.groovy", source)
+        unit.compile(Phases.CLASS_GENERATION)
+        return unit.classes.collectMany { ClassAbi.read(new ByteArrayInputStream(it.bytes)) }
+    }
+}
@@ -24,6 +24,7 @@
 package com.blackbuild.groovycps.plugin
 
 import com.blackbuild.groovycps.tests.GradleIntegrationTest
+import org.gradle.testkit.runner.TaskOutcome
 
 class GroovyCpsPluginTest extends GradleIntegrationTest {
 
@@ -37,6 +38,148 @@ class GroovyCpsPluginTest extends GradleIntegrationTest {
             assert compileTask.groovyOptions.configurationScript.text.contains('addStarImports("com.cloudbees.groovy.cps", "hudson.model", "jenkins.model"))')
         """
 
+        when:
+        runTask("cpsCompilerConfiguration", DO_VERIFY_TASK)
+
+        then:
+        noExceptionThrown()
+    }
+
+    def "compiler configuration is created from extension"() {
+        given:
+        withBuild """
+            cps {
+                disableAstChecker()
+                starImports "org.example"
+                imports "org.example.util.Helper"
+                scriptBaseClass = "org.example.BaseScript"
+            }
+        """
+        withVerifyTask """
+            def script = project.tasks.compileGroovy.groovyOptions.configurationScript.text
+            assert script.contains('.addStarImports("com.cloudbees.groovy.cps", "hudson.model", "jenkins.model", "org.example")')
+            assert script.contains('.addImports("org.example.util.Helper"))')
+            assert script.contains('CpsTransformer')
+            assert !script.contains('AstChecker')
+            assert script.contains('.setScriptBaseClass("org.example.BaseScript")')
+        """
+
+        when:
+        runTask("cpsCompilerConfiguration", DO_VERIFY_TASK)
+
+        then:
+        noExceptionThrown()
+    }
+
+    def "call graph analysis is disabled by default"() {
+        given:
+        withVerifyTask """
+            def script = project.tasks.compileGroovy.groovyOptions.configurationScript.text
+            assert !script.contains('CpsCallGraph')
+        """
+
+        when:
+        runTask("cpsCompilerConfiguration", DO_VERIFY_TASK)
+
+        then:
+        noExceptionThrown()
+    }
+
+    def "call graph analysis stores summaries relative to the classes directory"() {
+        given:
+        withBuild """
+            cps {
+                callGraphAnalysis()
+            }
+        """
+        withVerifyTask """
+            def script = project.tasks.compileGroovy.groovyOptions.configurationScript.text
+            assert script.contains('CpsCallGraph.customizers("../../../cps-summaries/main")')
+            assert project.tasks.compileGroovy.outputs.files.contains(project.file("build/cps-summaries/main"))
+        """
+
+        when:
+        runTask("cpsCompilerConfiguration", DO_VERIFY_TASK)
+
+        then:
+        noExceptionThrown()
+    }
+
+    def "method instrumentation runs before the CPS transformation"() {
+        given:
+        withBuild """
+            cps {
+                instrumentMethods()
+            }
+        """
+        withVerifyTask """
+            def script = project.tasks.compileCpsInstrumentedGroovy.groovyOptions.configurationScript.text
+            assert script.contains('CpsInstrumentation')
+            assert script.indexOf('CpsInstrumentation') < script.indexOf('CpsTransformer')
+        """
+
+        when:
+        runTask("cpsInstrumentedCompilerConfiguration", DO_VERIFY_TASK)
+
+        then:
+        noExceptionThrown()
+    }
+
+    def "instrumented classes are only used by tests"() {
+        given:
+        withCpsRepositories()
+        withBuild """
+            cps {
+                instrumentMethods()
+            }
+        """
+        withFile("src/main/groovy/Helper.groovy", """
+class Helper {
+    def run() { 42 }
+}
+""")
+        withVerifyTask """
+            assert !project.tasks.compileGroovy.groovyOptions.configurationScript.text.contains('CpsInstrumentation')
+            def runtimeClasspath = project.sourceSets.test.runtimeClasspath.files
+            assert runtimeClasspath.contains(project.file("build/classes/groovy/cpsInstrumented"))
+            assert !runtimeClasspath.contains(project.file("build/classes/groovy/main"))
+        """
+
+        when:
+        def result = runTask("jar", "compileCpsInstrumentedGroovy", DO_VERIFY_TASK)
+
+        then:
+        result.task(":compileCpsInstrumentedGroovy").outcome == TaskOutcome.SUCCESS
+        new File(testProjectDir, "build/classes/groovy/cpsInstrumented/Helper.class").text.contains("CpsMethodStatistics")
+        !new File(testProjectDir, "build/classes/groovy/main/Helper.class").text.contains("CpsMethodStatistics")
+    }
+
+    def "existing configuration script is embedded"() {
+        given:
+        withFile("config.groovy", """configuration.addCompilationCustomizers(new org.codehaus.groovy.control.customizers.ImportCustomizer().addImports('java.util.concurrent.TimeUnit'))""")
+        withBuild """
+            compileGroovy.groovyOptions.configurationScript = file("config.groovy")
+        """
+        withVerifyTask """
+            def script = project.tasks.compileGroovy.groovyOptions.configurationScript
+            assert script == project.file("build/cps/compilerConfiguration.groovy")
+            assert script.text.contains('CpsTransformer')
+            assert script.text.contains("java.util.concurrent.TimeUnit")
+        """
+
+        when:
+        runTask("cpsCompilerConfiguration", DO_VERIFY_TASK)
+
+        then:
+        noExceptionThrown()
+    }
+
+    def "main compilation is incremental"() {
+        given:
+        withVerifyTask '''
+            assert project.tasks.compileGroovy.options.incremental
+        '''
+
         when:
         runVerifyTask()
 
@@ -44,6 +187,232 @@ class GroovyCpsPluginTest extends GradleIntegrationTest {
         noExceptionThrown()
     }
 
+    def "changing a source only recompiles it and its dependents"() {
+        given:
+        withCpsRepositories()
+        withFile("src/main/groovy/First.groovy", "class First { def run() { 'first' } }")
+        withFile("src/main/groovy/Second.groovy", "class Second { def run() { 'second' } }")
+        withFile("src/main/groovy/Third.groovy", "class Third { def run() { new First().run() } }")
+        runTask("compileGroovy")
+        def classes = ["First", "Second", "Third"].collectEntries { [it, new File(testProjectDir, "build/classes/groovy/main/${it}.class")] }
+        classes.values().each { it.setLastModified(0) }
+
+        when:
+        withFile("src/main/groovy/First.groovy", "class First { def run() { 'changed' } }")
+        runTask("compileGroovy")
+
+        then:
+        classes.First.lastModified() != 0
+        classes.Third.lastModified() != 0
+        classes.Second.lastModified() == 0
+    }
 
+    def "incremental compilation can be disabled"() {
+        given:
+        withBuild '''
+            cps {
+                disableIncrementalCompilation()
+            }
+        '''
+        withVerifyTask '''
+            assert !project.tasks.compileGroovy.options.incremental
+        '''
 
+        when:
+        runVerifyTask()
+
+        then:
+        noExceptionThrown()
+    }
+
+    def "test compilation uses api classes"() {
+        given:
+        withVerifyTask '''
+            def classpath = project.sourceSets.test.compileClasspath.files
+            assert classpath.contains(project.file("build/cps-api/classes"))
+            assert !project.sourceSets.main.output.classesDirs.files.any { classpath.contains(it) }
+        '''
+
+        when:
+        runVerifyTask()
+
+        then:
+        noExceptionThrown()
+    }
+
+    def "test compilation uses main classes if compile avoidance is disabled"() {
+        given:
+        withBuild '''
+            cps {
+                disableCompileAvoidance()
+            }
+        '''
+        withVerifyTask '''
+            def classpath = project.sourceSets.test.compileClasspath.files
+            assert !classpath.contains(project.file("build/cps-api/classes"))
+            assert project.sourceSets.main.output.classesDirs.files.every { classpath.contains(it) }
+        '''
+
+        when:
+        runVerifyTask()
+
+        then:
+        noExceptionThrown()
+    }
+
+    def "cpsCheck reports violations without compiling"() {
+        given:
+        withCpsRepositories()
+        withFile("src/main/groovy/Invalid.groovy", """
+class Invalid {
+    def inner() {
+        return ""
+    }
+
+    @NonCPS
+    def outer() {
+        println inner()
+    }
+}
+""")
+        withFile("src/main/groovy/Valid.groovy", """
+class Valid {
+    def run() {
+        return "valid"
+    }
+}
+""")
+
+        when:
+        def result = runTaskAndFail("cpsCheck")
+
+        then:
+        result.output.contains("src/main/groovy/Invalid.groovy:9:")
+        result.output.contains("Found 1 CPS violation(s)")
+        result.task(":compileGroovy") == null
+
+        when:
+        def report = new File(testProjectDir, "build/reports/cps-check/cps-check.sarif").text
+
+        then:
+        report.contains('"uri":"src/main/groovy/Invalid.groovy"')
+        report.contains("Illegal call from NonCPS method outer")
+        !report.contains("Valid.groovy")
+    }
+
+    def "cpsCheck only checks changed sources"() {
+        given:
+        withCpsRepositories()
+        withBuild """
+            cpsCheck.chunkSize = 1
+        """
+        withFile("src/main/groovy/First.groovy", "class First { def run() { 'first' } }")
+        withFile("src/main/groovy/Second.groovy", "class Second { def run() { 'second' } }")
+        runTask("cpsCheck")
+        def firstResult = new File(testProjectDir, "build/cps-check/First.groovy.findings")
+        def secondResult = new File(testProjectDir, "build/cps-check/Second.groovy.findings")
+        firstResult.setLastModified(0)
+        secondResult.setLastModified(0)
+
+        when:
+        withFile("src/main/groovy/Second.groovy", "class Second { def run() { 'changed' } }")
+        runTask("cpsCheck")
+
+        then:
+        firstResult.lastModified() == 0
+        secondResult.lastModified() != 0
+    }
+
+    def "cpsCheck rechecks unchanged callers if declarations of another source change"() {
+        given:
+        withCpsRepositories()
+        withBuild """
+            cpsCheck.chunkSize = 1
+        """
+        withFile("src/main/groovy/Helper.groovy", """
+class Helper {
+    @NonCPS
+    def inner() {
+        return ""
+    }
+}
+""")
+        withFile("src/main/groovy/Caller.groovy", """
+class Caller {
+    @NonCPS
+    def outer() {
+        println new Helper().inner()
+    }
+}
+""")
+        runTask("cpsCheck")
+
+        when:
+        withFile("src/main/groovy/Helper.groovy", """
+class Helper {
+    def inner() {
+        return ""
+    }
+}
+""")
+        def result = runTaskAndFail("cpsCheck")
+
+        then:
+        result.output.contains("src/main/groovy/Caller.groovy:5:")
+        result.output.contains("Found 1 CPS violation(s)")
+
+        when:
+        withFile("src/main/groovy/Helper.groovy", """
+class Helper {
+    @NonCPS
+    def inner() {
+        return "fixed"
+    }
+}
+""")
+        runTask("cpsCheck")
+
+        then:
+        !new File(testProjectDir, "build/reports/cps-check/cps-check.sarif").text.contains("Caller.groovy")
+    }
+
+    def "cpsCheck resolves other library classes from source"() {
+        given:
+        withCpsRepositories()
+        withFile("src/main/groovy/Helper.groovy", """
+class Helper {
+    def inner() {
+        return ""
+    }
+}
+""")
+        withFile("src/main/groovy/Caller.groovy", """
+class Caller {
+    @NonCPS
+    def outer() {
+        println new Helper().inner()
+    }
+}
+""")
+
+        when:
+        def result = runTaskAndFail("cpsCheck")
+
+        then:
+        result.output.contains("src/main/groovy/Caller.groovy:5:")
+        result.output.contains("Found 1 CPS violation(s)")
+        result.task(":compileGroovy") == null
+    }
+
+    void withCpsRepositories() {
+        withBuild """
+            repositories {
+                mavenCentral()
+                mavenLocal()
+                maven {
+                    url "https://repo.jenkins-ci.org/releases/"
+                }
+            }
+        """
+    }
 }
@@ -72,13 +72,20 @@ abstract class GradleIntegrationTest extends Specification {
     }
 
     protected BuildResult runTask(String... tasks) {
+        return createRunner(tasks).build()
+    }
+
+    protected BuildResult runTaskAndFail(String... tasks) {
+        return createRunner(tasks).buildAndFail()
+    }
+
+    private GradleRunner createRunner(String... tasks) {
         return GradleRunner.create()
                 .withProjectDir(testProjectDir)
                 .withArguments(tasks)
                 .withDebug(true)
                 .withPluginClasspath()
                 .forwardOutput()
-                .build()
     }
 
     protected BuildResult runVerifyTask() {
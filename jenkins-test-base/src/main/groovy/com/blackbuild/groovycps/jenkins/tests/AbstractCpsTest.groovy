@@ -23,9 +23,10 @@
  */
 package com.blackbuild.groovycps.jenkins.tests
 
+import com.blackbuild.groovy.cps.astchecker.CpsMethodStatistics
 import com.cloudbees.groovy.cps.Continuation
+import com.cloudbees.groovy.cps.Next
 import com.cloudbees.groovy.cps.impl.CpsCallableInvocation
-import hudson.AbortException
 import hudson.model.Job
 import hudson.model.Run
 import org.jenkinsci.plugins.workflow.cps.CpsScript
@@ -34,61 +35,212 @@ import org.junit.Rule
 import org.junit.rules.TemporaryFolder
 import spock.lang.Specification
 
+/**
+ * Base class for tests of CPS library code. All state is kept per feature, so features can run in parallel.
+ */
 abstract class AbstractCpsTest extends Specification {
 
     @Rule TemporaryFolder temporaryFolder = new TemporaryFolder()
 
-    CpsScript script
-    Map<String, String> scriptEnv = [:]
-    Map<String, Object> jobParams = [:]
-    StringWriter outputWriter = new StringWriter()
-    Job job = Mock()
-    Run rawBuild = GroovyMock() {
-        getParent() >> job
+    private CpsTestRuntime runtime
+    private CpsMethodStatistics.Scope methodStatistics
+    private CpsScript script
+    private Job job
+    private Run rawBuild
+    private RunWrapper currentBuild
+
+    /**
+     * Limits for each execute call of the current feature, override {@link #createBudget()} to change the
+     * defaults for a whole class.
+     */
+    CpsExecutionBudget budget
+
+    /**
+     * Serialization of the CPS program state at step boundaries, disabled by default. Override
+     * {@link #createSerializationCheck()} to enable it for a whole class.
+     */
+    CpsSerializationCheck serializationCheck
+
+    /**
+     * Metrics of all execute calls of the current feature that ran CPS code, in the order of completion.
+     */
+    final List<CpsExecutionMetrics> executions = []
+
+    /**
+     * The current state of all running programs, outermost first. The bodies of block steps run as nested
+     * programs while the outer program is suspended in the step call.
+     */
+    private final List<Next> activePrograms = []
+
+    def setup() {
+        budget = createBudget()
+        serializationCheck = createSerializationCheck()
+        methodStatistics = CpsMethodStatistics.openScope()
+        runtime = CpsTestRuntime.acquire()
+        runtime.mirrorToConsole = mirrorToConsole()
+        runtime.executor = this.&execute
+        runtime.global("currentBuild") { getCurrentBuild() }
+        script = useMockScript() ? createMockScript() : runtime.script
     }
-    RunWrapper currentBuild = GroovyMock() {
-        getRawBuild() >> rawBuild
+
+    def cleanup() {
+        // setup might have failed before opening the scope or acquiring the runtime
+        methodStatistics?.close()
+        if (runtime == null)
+            return
+        // written at once, so the output of parallel features does not interleave
+        if (runtime.transcript.buffer.length() > 0)
+            System.out.print(runtime.transcript)
+        runtime.release()
     }
 
-    int blockIndent = 0
+    /**
+     * The fake Jenkins runtime of the current test, use it to register additional steps or global variables.
+     */
+    CpsTestRuntime getRuntime() {
+        runtime
+    }
 
+    CpsScript getScript() {
+        script
+    }
 
-    def setup() {
-        script = GroovyMock(CpsScript) {
-            getBinding() >> new Binding()
-            getEnv() >> scriptEnv
-            getParams() >> jobParams
-            echo(_) >> { CharSequence message ->
-                println message
-                outputWriter.println(message)
+    /**
+     * Replaces the script passed to the library code, e.g. by a custom mock.
+     */
+    void setScript(CpsScript script) {
+        this.script = script
+    }
+
+    Map<String, String> getScriptEnv() {
+        runtime.env
+    }
+
+    void setScriptEnv(Map<String, String> env) {
+        runtime.env.clear()
+        runtime.env.putAll(env)
+    }
+
+    Map<String, Object> getJobParams() {
+        runtime.params
+    }
+
+    void setJobParams(Map<String, Object> params) {
+        runtime.params.clear()
+        runtime.params.putAll(params)
+    }
+
+    /**
+     * @deprecated use {@link #getLog()} or {@link #getStepEvents()}
+     */
+    @Deprecated
+    StringWriter getOutputWriter() {
+        StringWriter result = new StringWriter()
+        runtime.log.each { result.println(it) }
+        result
+    }
+
+    int getBlockIndent() {
+        runtime.blockIndent
+    }
+
+    // mocks are only created if a test actually uses them
+
+    Job getJob() {
+        if (job == null)
+            job = Mock(Job)
+        job
+    }
+
+    void setJob(Job job) {
+        this.job = job
+    }
+
+    Run getRawBuild() {
+        if (rawBuild == null) {
+            def parent = getJob()
+            rawBuild = GroovyMock(Run) {
+                getParent() >> parent
             }
-            //noinspection GroovyAssignabilityCheck
-            getCurrentBuild() >> currentBuild
-            //noinspection GroovyAssignabilityCheck
-            dir(_, _) >> { String path, Closure body -> namedBlock("DIR: $path", body)}
-            //noinspection GroovyAssignabilityCheck
-            error(_) >> { String message -> throw new AbortException(message) }
-            stage(_, _) >> { String name, Closure body -> namedBlock("Stage $name", body) }
-            timeout(_, _) >> { Map args, Closure body -> namedBlock("timeout", body) }
-            withEnv(_, _) >> { List args, Closure body -> namedBlock("withEnv $args", body) }
         }
+        rawBuild
+    }
+
+    void setRawBuild(Run rawBuild) {
+        this.rawBuild = rawBuild
+    }
 
-        // script.env is actually an instance of EnvActionImpl, not a map. Setting of versions is done via setProperty
-        // meta method, so we simply monkeypatch that one
-        scriptEnv.getMetaClass().setProperty = { String name, Object value -> put(name, value) }
+    RunWrapper getCurrentBuild() {
+        if (currentBuild == null) {
+            def build = getRawBuild()
+            currentBuild = GroovyMock(RunWrapper) {
+                getRawBuild() >> build
+            }
+        }
+        currentBuild
+    }
+
+    void setCurrentBuild(RunWrapper currentBuild) {
+        this.currentBuild = currentBuild
+    }
+
+    /**
+     * Registers or replaces the handler for a step for the current test, e.g.
+     * {@code step("sh") { String command -> "" }}.
+     */
+    void step(String name, Closure handler) {
+        runtime.step(name, handler)
     }
 
     protected Object namedBlock(String name, Closure body) {
-        try {
-            println "${" " * blockIndent * 2}$name: {"
-            blockIndent++
-            execute body
-        } finally {
-            println " " * blockIndent * 2
-            blockIndent--
+        runtime.namedBlock(name, body)
+    }
+
+    protected CpsExecutionBudget createBudget() {
+        new CpsExecutionBudget()
+    }
+
+    protected CpsSerializationCheck createSerializationCheck() {
+        new CpsSerializationCheck()
+    }
+
+    /**
+     * Whether {@link #getScript()} is a GroovyMock of CpsScript, like in previous versions of this class, so
+     * features can stub and verify steps on it, e.g. {@code 1 * script.sh("make")}. The default steps and
+     * properties of the mock are backed by the runtime, other steps must be stubbed on the mock. Override to
+     * enable it for a whole class.
+     */
+    protected boolean useMockScript() {
+        false
+    }
+
+    private CpsScript createMockScript() {
+        CpsTestRuntime runtime = this.runtime
+        AbstractCpsTest test = this
+        GroovyMock(CpsScript) {
+            getBinding() >> runtime.binding
+            getEnv() >> runtime.env
+            getParams() >> runtime.params
+            //noinspection GroovyAssignabilityCheck
+            getCurrentBuild() >> { test.getCurrentBuild() }
+            echo(_) >> { args -> runtime.invokeStep("echo", args as Object[]) }
+            //noinspection GroovyAssignabilityCheck
+            error(_) >> { args -> runtime.invokeStep("error", args as Object[]) }
+            //noinspection GroovyAssignabilityCheck
+            dir(_, _) >> { args -> runtime.invokeStep("dir", args as Object[]) }
+            stage(_, _) >> { args -> runtime.invokeStep("stage", args as Object[]) }
+            timeout(_, _) >> { args -> runtime.invokeStep("timeout", args as Object[]) }
+            withEnv(_, _) >> { args -> runtime.invokeStep("withEnv", args as Object[]) }
         }
     }
 
+    /**
+     * Whether echo calls and blocks are printed after each feature, override to disable it for a whole class.
+     */
+    protected boolean mirrorToConsole() {
+        true
+    }
+
     /**
      * Wrapper method for CPS code.
      * @param code
@@ -97,19 +249,89 @@ abstract class AbstractCpsTest extends Specification {
         try {
             return code.call()
         } catch (CpsCallableInvocation e) {
-            return e.invoke(null, null, Continuation.HALT).run(100000).replay() as T
+            return runProgram(e.invoke(null, null, Continuation.HALT)) as T
         }
     }
 
+    private Object runProgram(Next program) {
+        CpsExecutionMetrics metrics = new CpsExecutionMetrics()
+        Next next = program
+        Continuation continuation = null
+        int level = activePrograms.size()
+        activePrograms << next
+        try {
+            while (next.yield == null) {
+                if (!next.k.is(continuation)) {
+                    continuation = next.k
+                    metrics.continuationSwitches++
+                }
+                long stepCalls = runtime.stepCalls
+                next = next.step()
+                activePrograms[level] = next
+                metrics.steps++
+                budget.checkRunning(metrics)
+                if (serializationCheck.enabled && runtime.stepCalls != stepCalls && next.yield == null)
+                    metrics.checkpoints << serializationCheck.checkpoint(activePrograms, runtime.lastStep, metrics.steps, runtime.console)
+            }
+        } finally {
+            activePrograms.remove(level)
+            metrics.finish()
+            executions << metrics
+        }
+        budget.checkCompleted(metrics, runtime.console)
+        next.yield.replay()
+    }
+
+    /**
+     * Metrics of the last execute call that ran CPS code.
+     */
+    CpsExecutionMetrics getLastExecution() {
+        executions ? executions.last() : null
+    }
+
+    /**
+     * Invocation counts and times of the library methods called by the current test, keyed by class and method
+     * signature. Only filled if the library is compiled with {@code cps { instrumentMethods() }}.
+     */
+    Map<String, CpsMethodStatistics.Entry> getMethodStatistics() {
+        methodStatistics.entries
+    }
+
+    /**
+     * The lines of all echo calls of the current feature.
+     */
     List<String> getLog() {
-        outputWriter.toString().readLines()
+        Collections.unmodifiableList(runtime.log)
+    }
+
+    /**
+     * All step calls of the current feature in the order they were started.
+     */
+    List<CpsStepEvent> getStepEvents() {
+        Collections.unmodifiableList(runtime.events)
+    }
+
+    List<CpsStepEvent> stepEvents(String name) {
+        runtime.events(name)
+    }
+
+    int stepCount(String name) {
+        int result = 0
+        for (CpsStepEvent event : runtime.events)
+            if (event.name == name)
+                result++
+        result
+    }
+
+    boolean stepCalled(String name) {
+        runtime.events.any { it.name == name }
     }
 
     void withEnv(Map<String, String> env) {
-        scriptEnv << env
+        runtime.env.putAll(env)
     }
 
     void withParams(Map<String, Object> params) {
-        jobParams << params
+        runtime.params.putAll(params)
     }
 }
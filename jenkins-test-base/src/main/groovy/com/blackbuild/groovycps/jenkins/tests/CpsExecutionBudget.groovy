@@ -0,0 +1,58 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.jenkins.tests
+
+/**
+ * Limits for a single {@link AbstractCpsTest#execute(groovy.lang.Closure)} call. Exceeding a max value fails the
+ * execution, exceeding a warn value only prints a warning. A value of 0 disables the respective check.
+ */
+class CpsExecutionBudget {
+
+    long maxSteps = 100000
+    long warnSteps
+    long maxMillis
+    long warnMillis
+
+    /**
+     * Called during execution, aborts runaway executions.
+     */
+    void checkRunning(CpsExecutionMetrics metrics) {
+        if (maxSteps > 0 && metrics.steps > maxSteps)
+            throw new IllegalStateException("CPS execution exceeded the budget of $maxSteps steps")
+        if (maxMillis > 0 && metrics.steps % 1000 == 0 && metrics.elapsedMillis > maxMillis)
+            throw new IllegalStateException("CPS execution exceeded the budget of $maxMillis ms")
+    }
+
+    /**
+     * Called after a completed execution.
+     */
+    void checkCompleted(CpsExecutionMetrics metrics, PrintWriter console) {
+        if (maxMillis > 0 && metrics.wallMillis > maxMillis)
+            throw new IllegalStateException("CPS execution took $metrics.wallMillis ms, budget is $maxMillis ms")
+        if (warnSteps > 0 && metrics.steps > warnSteps)
+            console.println "WARNING: CPS execution took $metrics.steps steps, more than $warnSteps"
+        if (warnMillis > 0 && metrics.wallMillis > warnMillis)
+            console.println "WARNING: CPS execution took $metrics.wallMillis ms, more than $warnMillis ms"
+    }
+}
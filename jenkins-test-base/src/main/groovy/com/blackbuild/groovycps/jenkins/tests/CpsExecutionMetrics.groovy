@@ -0,0 +1,92 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.jenkins.tests
+
+import java.lang.management.ManagementFactory
+
+/**
+ * Costs of a single {@link AbstractCpsTest#execute(groovy.lang.Closure)} call that ran CPS code.
+ */
+class CpsExecutionMetrics {
+
+    /**
+     * Number of interpreter steps.
+     */
+    long steps
+
+    /**
+     * Number of steps that continued with a different continuation than the previous step, i.e. calls and returns
+     * of CPS functions and blocks. This is not the number of allocated continuations, see {@link #allocatedBytes}.
+     */
+    long continuationSwitches
+
+    /**
+     * Bytes allocated by the executing thread, i.e. continuations, environments and values as well as the
+     * objects created by the executed code, or -1 if the JVM cannot measure allocations per thread.
+     */
+    long allocatedBytes = -1
+
+    /**
+     * Serialized program states after each step call, only if the {@link CpsSerializationCheck} is enabled.
+     */
+    final List<CpsCheckpoint> checkpoints = []
+
+    long startNanos = System.nanoTime()
+    long wallNanos
+    private final long startAllocatedBytes = threadAllocatedBytes()
+
+    long getElapsedMillis() {
+        (System.nanoTime() - startNanos).intdiv(1000000)
+    }
+
+    long getWallMillis() {
+        wallNanos.intdiv(1000000)
+    }
+
+    long getMaxCheckpointBytes() {
+        checkpoints*.bytes.max() ?: 0L
+    }
+
+    /**
+     * Called when the execution is finished, successfully or not.
+     */
+    void finish() {
+        wallNanos = System.nanoTime() - startNanos
+        long currentAllocatedBytes = threadAllocatedBytes()
+        if (startAllocatedBytes >= 0 && currentAllocatedBytes >= 0)
+            allocatedBytes = currentAllocatedBytes - startAllocatedBytes
+    }
+
+    private static long threadAllocatedBytes() {
+        def threads = ManagementFactory.threadMXBean
+        if (threads instanceof com.sun.management.ThreadMXBean && threads.threadAllocatedMemorySupported && threads.threadAllocatedMemoryEnabled)
+            return threads.getThreadAllocatedBytes(Thread.currentThread().id)
+        return -1
+    }
+
+    @Override
+    String toString() {
+        "$steps steps, $continuationSwitches continuation switches, $allocatedBytes bytes allocated, $wallMillis ms"
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.jenkins.tests
+
+import com.cloudbees.groovy.cps.Next
+
+/**
+ * Serializes the CPS program state after each step call, like Jenkins does when a pipeline pauses, to find
+ * non-serializable or large objects kept in local variables or closures. Uses plain Java serialization, so the
+ * sizes are an approximation of what Jenkins writes to program.dat.
+ * <p>
+ * Disabled by default. A max value fails the execution, a warn value only prints a warning, 0 disables the check.
+ */
+class CpsSerializationCheck {
+
+    boolean enabled
+    boolean failOnNotSerializable = true
+    long maxBytes
+    long warnBytes
+
+    /**
+     * @param programs the states of all running programs, outermost first, so a checkpoint inside the body of a
+     * block step also contains the suspended outer programs
+     */
+    CpsCheckpoint checkpoint(List<Next> programs, String step, long programStep, PrintWriter console) {
+        CountingOutputStream counter = new CountingOutputStream()
+        String error = null
+        try {
+            new ObjectOutputStream(counter).withCloseable { it.writeObject(new ArrayList<Next>(programs)) }
+        } catch (NotSerializableException e) {
+            error = "not serializable: $e.message"
+        }
+        CpsCheckpoint result = new CpsCheckpoint(step: step, programStep: programStep, bytes: counter.count, error: error)
+
+        if (error != null && failOnNotSerializable)
+            throw new IllegalStateException("CPS program state after step '$step' is $error")
+        if (maxBytes > 0 && result.bytes > maxBytes)
+            throw new IllegalStateException("CPS program state after step '$step' has $result.bytes bytes, more than $maxBytes")
+        if (warnBytes > 0 && result.bytes > warnBytes)
+            console.println "WARNING: CPS program state after step '$step' has $result.bytes bytes, more than $warnBytes"
+        result
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        long count
+
+        @Override
+        void write(int b) {
+            count++
+        }
+
+        @Override
+        void write(byte[] b, int off, int len) {
+            count += len
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.jenkins.tests
+
+/**
+ * A single step call recorded by the {@link CpsTestRuntime}.
+ */
+class CpsStepEvent {
+
+    final String name
+    private final Object[] args
+
+    /**
+     * Number of enclosing step calls, e.g. 1 for an echo inside a stage.
+     */
+    final int depth
+    final long startNanos
+    long durationNanos
+
+    CpsStepEvent(String name, Object[] args, int depth) {
+        this.name = name
+        this.args = args
+        this.depth = depth
+        this.startNanos = System.nanoTime()
+    }
+
+    List<Object> getArgs() {
+        Arrays.asList(args)
+    }
+
+    /**
+     * The first argument, e.g. the message of an echo or the name of a stage.
+     */
+    Object getArg() {
+        args.length > 0 ? args[0] : null
+    }
+
+    @Override
+    String toString() {
+        "$name$args"
+    }
+}
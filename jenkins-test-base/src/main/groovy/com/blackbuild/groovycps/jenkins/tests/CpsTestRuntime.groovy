@@ -0,0 +1,224 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.jenkins.tests
+
+import hudson.AbortException
+import org.jenkinsci.plugins.workflow.cps.CpsScript
+
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * Fake Jenkins runtime for CPS tests: a script dispatching steps and global variables to pluggable handlers.
+ * Runtimes are pooled and reset between tests, see {@link AbstractCpsTest}. Each concurrently running test
+ * uses its own runtime, all output is captured per runtime instead of being written to {@code System.out}.
+ * <p>
+ * Steps without a handler return null.
+ */
+class CpsTestRuntime {
+
+    private static final Queue<CpsTestRuntime> POOL = new ConcurrentLinkedQueue<>()
+
+    final CpsScript script
+    final Binding binding = new Binding()
+    final Map<String, String> env = new ScriptEnvironment()
+    final Map<String, Object> params = [:]
+
+    /**
+     * All step calls in the order they were started.
+     */
+    final List<CpsStepEvent> events = []
+
+    /**
+     * The lines of all echo calls.
+     */
+    final List<String> log = []
+
+    /**
+     * Console output and warnings, echo calls and block markers are only mirrored if {@link #mirrorToConsole}
+     * is set.
+     */
+    final StringWriter transcript = new StringWriter()
+    final PrintWriter console = new PrintWriter(transcript, true)
+    boolean mirrorToConsole = true
+    int blockIndent
+
+    /**
+     * The name of the last completed step, used to detect step boundaries.
+     */
+    String lastStep
+
+    private int depth
+
+    /**
+     * Runs the body of block steps, set by the test to its CPS aware execute method.
+     */
+    Closure executor
+
+    private final Map<String, Closure> steps = [:]
+    private final Map<String, Closure> globals = [:]
+    private final Map<String, Closure> defaultSteps
+    private final Map<String, Closure> defaultGlobals
+
+    /**
+     * Returns an unused runtime, which must be released after the test.
+     */
+    static CpsTestRuntime acquire() {
+        POOL.poll() ?: new CpsTestRuntime()
+    }
+
+    void release() {
+        reset()
+        POOL.offer(this)
+    }
+
+    CpsTestRuntime() {
+        script = TestCpsScript.create(this)
+
+        registerDefaults()
+        defaultSteps = new LinkedHashMap<>(steps)
+        defaultGlobals = new LinkedHashMap<>(globals)
+        reset()
+    }
+
+    private void registerDefaults() {
+        step("echo") { CharSequence message ->
+            String text = message.toString()
+            if (text.contains("\n"))
+                log.addAll(text.readLines())
+            else
+                log.add(text)
+            if (mirrorToConsole)
+                console.println(text)
+        }
+        step("error") { String message -> throw new AbortException(message) }
+        step("dir") { String path, Closure body -> namedBlock("DIR: $path", body) }
+        step("stage") { String name, Closure body -> namedBlock("Stage $name", body) }
+        step("timeout") { Map args, Closure body -> namedBlock("timeout", body) }
+        step("withEnv") { List args, Closure body -> namedBlock("withEnv $args", body) }
+
+        global("env") { env }
+        global("params") { params }
+    }
+
+    /**
+     * Restores the default steps and global variables and clears all state of the previous test.
+     */
+    void reset() {
+        steps.clear()
+        steps.putAll(defaultSteps)
+        globals.clear()
+        globals.putAll(defaultGlobals)
+        binding.variables.clear()
+        env.clear()
+        params.clear()
+        events.clear()
+        log.clear()
+        transcript.buffer.setLength(0)
+        mirrorToConsole = true
+        blockIndent = 0
+        depth = 0
+        lastStep = null
+        executor = { Closure body -> body.call() }
+    }
+
+    /**
+     * Registers or replaces the handler for a step, called with the arguments of the step call.
+     */
+    void step(String name, Closure handler) {
+        steps[name] = handler
+    }
+
+    /**
+     * Registers or replaces a global variable, the supplier is called on each access.
+     */
+    void global(String name, Closure supplier) {
+        globals[name] = supplier
+    }
+
+    boolean hasStep(String name) {
+        steps.containsKey(name)
+    }
+
+    Object invokeStep(String name, Object[] args) {
+        Closure handler = steps[name]
+        CpsStepEvent event = new CpsStepEvent(name, args, depth)
+        events.add(event)
+        depth++
+        try {
+            handler != null ? handler.call(*args) : null
+        } finally {
+            depth--
+            event.durationNanos = System.nanoTime() - event.startNanos
+            lastStep = name
+        }
+    }
+
+    long getStepCalls() {
+        events.size()
+    }
+
+    /**
+     * All calls of the given step.
+     */
+    List<CpsStepEvent> events(String name) {
+        events.findAll { it.name == name }
+    }
+
+    Object getGlobal(String name) {
+        Closure supplier = globals[name]
+        if (supplier == null)
+            throw new MissingPropertyException(name, script.getClass())
+        supplier.call()
+    }
+
+    Object namedBlock(String name, Closure body) {
+        try {
+            if (mirrorToConsole)
+                printIndented("$name: {")
+            blockIndent++
+            executor.call(body)
+        } finally {
+            if (mirrorToConsole)
+                printIndented("")
+            blockIndent--
+        }
+    }
+
+    private void printIndented(String text) {
+        for (int i = 0; i < blockIndent * 2; i++)
+            console.write(' ' as char)
+        console.println(text)
+    }
+
+    /**
+     * script.env is actually an instance of EnvActionImpl, not a map. Setting of values is also done using
+     * setProperty directly.
+     */
+    static class ScriptEnvironment extends LinkedHashMap<String, String> {
+        @Override
+        void setProperty(String name, Object value) {
+            put(name, value)
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.jenkins.tests
+
+import groovy.transform.CompileStatic
+import org.codehaus.groovy.runtime.InvokerHelper
+import org.jenkinsci.plugins.workflow.cps.CpsScript
+import org.jenkinsci.plugins.workflow.support.steps.build.RunWrapper
+import org.objenesis.ObjenesisStd
+
+/**
+ * The script of a {@link CpsTestRuntime}, dispatching steps and global variables to the runtime instead of the
+ * Jenkins DSL.
+ */
+class TestCpsScript extends CpsScript {
+
+    transient CpsTestRuntime runtime
+
+    /**
+     * Creates the script without calling the constructor of CpsScript, which needs a running CPS thread group.
+     * Statically compiled, since dynamic calls need the meta class, which is usually set by the constructor.
+     */
+    @CompileStatic
+    static TestCpsScript create(CpsTestRuntime runtime) {
+        TestCpsScript script = new ObjenesisStd().newInstance(TestCpsScript)
+        script.setMetaClass(InvokerHelper.getMetaClass(TestCpsScript))
+        script.setBinding(runtime.binding)
+        script.runtime = runtime
+        script
+    }
+
+    @Override
+    Object run() {
+        null
+    }
+
+    Map<String, String> getEnv() {
+        runtime.getGlobal("env") as Map<String, String>
+    }
+
+    Map<String, Object> getParams() {
+        runtime.getGlobal("params") as Map<String, Object>
+    }
+
+    RunWrapper getCurrentBuild() {
+        runtime.getGlobal("currentBuild") as RunWrapper
+    }
+
+    // CpsScript looks up the global variables of the Jenkins instance before the properties of the script
+    @Override
+    Object getProperty(String name) {
+        if (getBinding().hasVariable(name))
+            return getBinding().getVariable(name)
+        // getters of this class, propertyMissing otherwise
+        getMetaClass().getProperty(this, name)
+    }
+
+    // only called for steps, CpsScript.invokeMethod is final and would dispatch to the Jenkins DSL
+    def methodMissing(String name, Object args) {
+        runtime.invokeStep(name, args as Object[])
+    }
+
+    def propertyMissing(String name) {
+        runtime.getGlobal(name)
+    }
+
+    // CpsScript redirects these to the echo step of the Jenkins DSL
+    @Override
+    void println() {
+        runtime.invokeStep("echo", [""] as Object[])
+    }
+
+    @Override
+    void println(Object value) {
+        runtime.invokeStep("echo", [String.valueOf(value)] as Object[])
+    }
+
+    @Override
+    void print(Object value) {
+        println(value)
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.jenkins.tests
+
+import com.blackbuild.groovy.cps.astchecker.CpsMethodStatistics
+import org.junit.experimental.ParallelComputer
+import org.junit.runner.JUnitCore
+import org.junit.runner.Result
+import spock.lang.IgnoreIf
+import spock.lang.Specification
+
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.TimeUnit
+
+/**
+ * Runs specs based on {@link AbstractCpsTest} using JUnit, since Spock 1.3 has no parallel execution. The nested
+ * specs are skipped when run on their own.
+ */
+class AbstractCpsTestLifecycleSpec extends Specification {
+
+    static volatile boolean running
+    static CyclicBarrier barrier
+
+    def setup() {
+        running = true
+    }
+
+    def cleanup() {
+        running = false
+    }
+
+    def "features running in parallel keep their log and method statistics isolated"() {
+        given:
+        barrier = new CyclicBarrier(3)
+
+        when:
+        Result result = JUnitCore.runClasses(ParallelComputer.classes(), FirstFeature, SecondFeature, ThirdFeature)
+
+        then:
+        result.failures.empty
+        result.runCount == 3
+    }
+
+    def "a failing setup is reported without failures of the cleanup"() {
+        when:
+        Result result = JUnitCore.runClasses(FailingSetup)
+
+        then:
+        result.failures*.exception*.message == ["broken setup"]
+    }
+
+    static abstract class IsolatedFeature extends AbstractCpsTest {
+
+        @IgnoreIf({ !AbstractCpsTestLifecycleSpec.running })
+        def "state is kept per feature"() {
+            given:
+            String name = getClass().simpleName
+
+            when:
+            script.echo "first " + name
+            CpsMethodStatistics.record(name + ".method()", CpsMethodStatistics.start())
+            // all features are running at the same time
+            barrier.await(10, TimeUnit.SECONDS)
+            script.echo "second " + name
+
+            then:
+            log == ["first " + name, "second " + name]
+            stepEvents.size() == 2
+            methodStatistics.keySet() == [name + ".method()"] as Set
+        }
+    }
+
+    static class FirstFeature extends IsolatedFeature {}
+
+    static class SecondFeature extends IsolatedFeature {}
+
+    static class ThirdFeature extends IsolatedFeature {}
+
+    @IgnoreIf({ !AbstractCpsTestLifecycleSpec.running })
+    static class FailingSetup extends AbstractCpsTest {
+
+        @Override
+        protected CpsExecutionBudget createBudget() {
+            throw new IllegalStateException("broken setup")
+        }
+
+        def "never runs"() {
+            expect:
+            false
+        }
+    }
+}
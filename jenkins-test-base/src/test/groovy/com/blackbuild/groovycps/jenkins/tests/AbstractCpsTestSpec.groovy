@@ -0,0 +1,113 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.jenkins.tests
+
+class AbstractCpsTestSpec extends CpsLibraryTest {
+
+    def pipeline
+
+    def setup() {
+        pipeline = library('''
+class Pipeline implements Serializable {
+    def script
+
+    Pipeline(script) {
+        this.script = script
+    }
+
+    def run() {
+        script.stage("build") {
+            script.dir("sub") {
+                script.withEnv(["A=1"]) {
+                    script.echo "building ${script.env.BRANCH}"
+                }
+            }
+        }
+        script.env.RESULT = "done"
+        return script.currentBuild.rawBuild.parent
+    }
+
+    def deploy() {
+        script.deploy("prod")
+    }
+}
+''').newInstance(script)
+    }
+
+    def "steps, blocks and global variables are dispatched to the runtime"() {
+        given:
+        scriptEnv.BRANCH = "main"
+
+        when:
+        def result = execute { pipeline.run() }
+
+        then:
+        result.is(job)
+        log == ["building main"]
+        stepEvents*.name == ["stage", "dir", "withEnv", "echo"]
+        stepEvents*.depth == [0, 1, 2, 3]
+        scriptEnv.RESULT == "done"
+    }
+
+    def "steps without handler return null and are recorded"() {
+        when:
+        def result = execute { pipeline.deploy() }
+
+        then:
+        result == null
+        stepEvents("deploy")*.args == [["prod"]]
+    }
+
+    def "steps can be registered per feature"() {
+        given:
+        step("deploy") { String target -> "deployed $target".toString() }
+
+        when:
+        def result = execute { pipeline.deploy() }
+
+        then:
+        result == "deployed prod"
+    }
+
+    def "unknown global variables fail"() {
+        when:
+        script.docker
+
+        then:
+        thrown(MissingPropertyException)
+    }
+
+    def "state can be replaced like the properties of previous versions"() {
+        given:
+        scriptEnv = [BRANCH: "legacy"]
+        jobParams = [DEBUG: true]
+
+        when:
+        execute { pipeline.run() }
+
+        then:
+        log == ["building legacy"]
+        script.params.DEBUG
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.jenkins.tests
+
+class CpsExecutionBudgetSpec extends CpsLibraryTest {
+
+    def loops
+
+    def setup() {
+        loops = library('''
+class Loops implements Serializable {
+    def script
+
+    Loops(script) {
+        this.script = script
+    }
+
+    def spin() {
+        while (true) {
+        }
+    }
+
+    def sum(int count) {
+        int result = 0
+        for (int i = 0; i < count; i++)
+            result += i
+        return result
+    }
+
+    def nested() {
+        script.stage("outer") {
+            script.echo "inner"
+        }
+        return "done"
+    }
+}
+''').newInstance(script)
+    }
+
+    def "maxSteps aborts a runaway program"() {
+        given:
+        budget.maxSteps = 1000
+
+        when:
+        execute { loops.spin() }
+
+        then:
+        def e = thrown(IllegalStateException)
+        e.message.contains("1000 steps")
+        lastExecution.steps == 1001
+    }
+
+    def "maxMillis aborts a runaway program"() {
+        given:
+        budget.maxSteps = 0
+        budget.maxMillis = 50
+
+        when:
+        execute { loops.spin() }
+
+        then:
+        def e = thrown(IllegalStateException)
+        e.message.contains("50 ms")
+        lastExecution.wallMillis >= 50
+    }
+
+    def "exceeding warn values only prints a warning"() {
+        given:
+        budget.warnSteps = 10
+
+        when:
+        def result = execute { loops.sum(100) }
+
+        then:
+        result == 4950
+        runtime.transcript.toString().contains("WARNING: CPS execution took $lastExecution.steps steps, more than 10")
+    }
+
+    def "each execute call is recorded, including the bodies of block steps"() {
+        when:
+        def result = execute { loops.nested() }
+
+        then:
+        result == "done"
+        log == ["inner"]
+        executions.size() == 2
+        lastExecution.is(executions[1])
+        executions.every { it.steps > 0 && it.continuationSwitches > 0 && it.allocatedBytes > 0 }
+
+        and: "the outer execution completes last and includes the wall time of the block"
+        executions[1].wallNanos >= executions[0].wallNanos
+    }
+
+    def "code that is not CPS transformed is not recorded"() {
+        expect:
+        execute { 42 } == 42
+        executions.empty
+        lastExecution == null
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015-2023 Stephan Pauxberger
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.blackbuild.groovycps.jenkins.tests
+
+class CpsSerializationCheckSpec extends CpsLibraryTest {
+
+    def steps
+
+    def setup() {
+        serializationCheck.enabled = true
+        steps = library('''
+class Steps implements Serializable {
+    def script
+
+    Steps(script) {
+        this.script = script
+    }
+
+    def small() {
+        script.echo "small"
+        return "done"
+    }
+
+    def large() {
+        String data = "x" * 100000
+        script.echo "large"
+        return data.length()
+    }
+
+    def leak() {
+        def lock = new Object()
+        script.echo "locked"
+        return lock.hashCode()
+    }
+
+    def leakInBlock() {
+        def lock = new Object()
+        script.stage("locked") {
+            script.echo "inside"
+        }
+        return lock.hashCode()
+    }
+}
+''').newInstance(script)
+    }
+
+    def "a checkpoint is recorded after each step call"() {
+        when:
+        execute { steps.small() }
+
+        then:
+        lastExecution.checkpoints.size() == 1
+        lastExecution.checkpoints[0].step == "echo"
+        lastExecution.checkpoints[0].bytes > 0
+        lastExecution.checkpoints[0].error == null
+    }
+
+    def "sizes include the captured locals"() {
+        when:
+        execute { steps.small() }
+        execute { steps.large() }
+
+        then:
+        executions[1].maxCheckpointBytes > 100000
+        executions[0].maxCheckpointBytes < executions[1].maxCheckpointBytes - 100000
+    }
+
+    def "maxBytes fails and warnBytes warns"() {
+        given:
+        serializationCheck.warnBytes = 50000
+
+        when:
+        execute { steps.large() }
+
+        then:
+        runtime.transcript.toString().contains("WARNING: CPS program state after step 'echo'")
+
+        when:
+        serializationCheck.maxBytes = 50000
+        execute { steps.large() }
+
+        then:
+        def e = thrown(IllegalStateException)
+        e.message.contains("more than 50000")
+    }
+
+    def "a non serializable local fails the check"() {
+        when:
+        execute { steps.leak() }
+
+        then:
+        def e = thrown(IllegalStateException)
+        e.message.contains("not serializable: java.lang.Object")
+    }
+
+    def "checkpoints in the body of a block step contain the outer program"() {
+        when:
+        execute { steps.leakInBlock() }
+
+        then:
+        def e = thrown(IllegalStateException)
+        e.message == "CPS program state after step 'echo' is not serializable: java.lang.Object"
+    }
+
+    def "non serializable state can be recorded instead of failing"() {
+        given:
+        serializationCheck.failOnNotSerializable = false
+
+        when:
+        execute { steps.leak() }
+
+        then:
+        lastExecution.checkpoints[0].error == "not serializable: java.lang.Object"
+    }
+}